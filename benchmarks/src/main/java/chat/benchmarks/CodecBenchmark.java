@@ -0,0 +1,93 @@
+package chat.benchmarks;
+
+import network.LengthFieldDecoder;
+import network.LengthFieldEncoder;
+import network.StringDecoder;
+import network.StringEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * newline and length prefixed framing of one frame delivered in several reads
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+  @Param({"64", "1024", "16384"})
+  int frameSize;
+
+  @Param({"1", "4", "16"})
+  int fragments;
+
+  private String payload;
+  private byte[][] lineReads;
+  private byte[][] framedReads;
+
+  @Setup
+  public void setup() {
+    char[] chars = new char[frameSize];
+    Arrays.fill(chars, 'x');
+    payload = new String(chars);
+
+    lineReads = split((payload + "\n").getBytes(UTF_8), fragments);
+    framedReads = split(new LengthFieldEncoder().apply(newArrayList(payload.getBytes(UTF_8))), fragments);
+  }
+
+  @Benchmark
+  public void stringDecoder(Blackhole bh) {
+    StringDecoder decoder = new StringDecoder("\n");
+    for (byte[] read : lineReads) {
+      bh.consume(decoder.apply(read));
+    }
+  }
+
+  @Benchmark
+  public void lengthFieldDecoder(Blackhole bh) {
+    LengthFieldDecoder decoder = new LengthFieldDecoder(1024 * 1024);
+    for (byte[] read : framedReads) {
+      bh.consume(decoder.apply(ByteBuffer.wrap(read)));
+    }
+  }
+
+  @Benchmark
+  public byte[] stringEncoder() {
+    return new StringEncoder("\n").apply(newArrayList(payload));
+  }
+
+  @Benchmark
+  public byte[] lengthFieldEncoder() {
+    return new LengthFieldEncoder().apply(newArrayList(payload.getBytes(UTF_8)));
+  }
+
+  private static byte[][] split(byte[] bytes, int parts) {
+    List<byte[]> reads = newArrayList();
+    int size = (bytes.length + parts - 1) / parts;
+    for (int from = 0; from < bytes.length; from += size) {
+      reads.add(Arrays.copyOfRange(bytes, from, Math.min(bytes.length, from + size)));
+    }
+    return reads.toArray(new byte[0][]);
+  }
+}
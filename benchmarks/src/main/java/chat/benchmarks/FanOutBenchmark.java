@@ -0,0 +1,75 @@
+package chat.benchmarks;
+
+import chat.server.ChatRoom;
+import chat.server.ChatUser;
+import network.Frame;
+import network.Network;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+import static chat.common.Message.message;
+import static chat.common.MessageType.MESSAGE;
+
+/**
+ * cost of one room broadcast, the network takes a view of the shared frame
+ * per member the way an outbound queue does, without touching sockets
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanOutBenchmark {
+
+  @Param({"10", "1000", "10000"})
+  int members;
+
+  private ChatRoom room;
+  private Network network;
+  private byte[] encoded;
+
+  @Setup
+  public void setup() {
+    room = new ChatRoom("Java Programming");
+    for (int i = 0; i < members; i++) {
+      room.user(new ChatUser(null, "user" + i, room));
+    }
+    network = new ViewNetwork();
+    encoded = message(MESSAGE).with("message", "Rafael says: Hello everybody").binary();
+  }
+
+  @Benchmark
+  public void broadcast() {
+    Frame frame = Frame.wrap(encoded);
+    try {
+      room.send(network, frame);
+    } finally {
+      frame.release();
+    }
+  }
+
+  static class ViewNetwork extends Network {
+    private ByteBuffer last;
+
+    @Override
+    public void send(SocketChannel channel, Frame frame) {
+      frame.retain();
+      last = frame.view();
+      frame.release();
+    }
+  }
+}
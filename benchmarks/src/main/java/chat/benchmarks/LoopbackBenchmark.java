@@ -0,0 +1,103 @@
+package chat.benchmarks;
+
+import network.NetworkClient;
+import network.NetworkServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * in process echo over loopback through NetworkServer and NetworkClient,
+ * round trip latency of a single message and throughput of pipelined batches,
+ * with and without the server holding output back to gather it
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoopbackBenchmark {
+  private static final int PORT = 9990;
+
+  @Param({"0", "4"})
+  int workers;
+
+  @Param({"64", "1024"})
+  int messageSize;
+
+  @Param({"0", "200"})
+  int flushDelayMicros;
+
+  private NetworkServer server;
+  private NetworkClient client;
+  private byte[] message;
+  private final BlockingQueue<Integer> replies = new LinkedBlockingQueue<>();
+  private final AtomicInteger received = new AtomicInteger();
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    message = new byte[messageSize];
+
+    server = new NetworkServer().workers(workers);
+    server.flushDelay(flushDelayMicros, TimeUnit.MICROSECONDS);
+    server.onRead((channel, bytes) -> server.send(channel, bytes));
+    server.bind(PORT);
+
+    CountDownLatch connected = new CountDownLatch(1);
+    client = new NetworkClient();
+    client.onConnected(channel -> connected.countDown());
+    client.onRead(bytes -> {
+      // replies may coalesce, count bytes back into messages
+      int total = received.addAndGet(bytes.length);
+      while (total >= messageSize && received.compareAndSet(total, total - messageSize)) {
+        replies.add(messageSize);
+        total = received.get();
+      }
+    });
+    client.connect("localhost", PORT);
+    connected.await(5, TimeUnit.SECONDS);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    client.stop();
+    server.stop();
+    Thread.sleep(200);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  public Integer roundTrip() throws InterruptedException {
+    client.send(message);
+    return replies.poll(5, TimeUnit.SECONDS);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  public int pipelined() throws InterruptedException {
+    int batch = 64;
+    for (int i = 0; i < batch; i++) {
+      client.send(message);
+    }
+    for (int i = 0; i < batch; i++) {
+      replies.poll(5, TimeUnit.SECONDS);
+    }
+    return batch;
+  }
+}
@@ -0,0 +1,107 @@
+package chat.benchmarks;
+
+import chat.common.Message;
+import chat.common.MessageCodec;
+import chat.server.ChatTranslator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static chat.common.Message.message;
+import static chat.common.MessageType.MESSAGE;
+import static com.google.common.collect.Lists.newArrayList;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * message serialization and ChatTranslator round trips per wire format, and
+ * turning a received binary MESSAGE into its broadcast with and without decoding
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBenchmark {
+  private static final ByteBuffer SAYS = ByteBuffer.wrap(" says: ".getBytes(UTF_8));
+
+  private Message msg;
+  private String json;
+  private byte[] binary;
+  private ChatTranslator lines;
+  private ChatTranslator framed;
+  private ChatTranslator framedBinary;
+
+  @Setup
+  public void setup() {
+    msg = message(MESSAGE, "42")
+        .with("room", "Java Programming")
+        .with("user", "Rafael")
+        .with("message", "Hello everybody, how is the selector loop today?");
+    json = msg.json();
+    binary = msg.binary();
+    lines = ChatTranslator.translator();
+    framed = ChatTranslator.framed();
+    framedBinary = ChatTranslator.binary();
+  }
+
+  @Benchmark
+  public String json() {
+    return msg.json();
+  }
+
+  @Benchmark
+  public Message fromJson() {
+    return Message.from(json);
+  }
+
+  @Benchmark
+  public byte[] binary() {
+    return msg.binary();
+  }
+
+  @Benchmark
+  public Message fromBinary() {
+    return MessageCodec.decode(ByteBuffer.wrap(binary));
+  }
+
+  @Benchmark
+  public List<Message> jsonLinesRoundTrip() {
+    return lines.from(lines.to(newArrayList(msg)));
+  }
+
+  @Benchmark
+  public List<Message> framedJsonRoundTrip() {
+    return framed.from(framed.to(newArrayList(msg)));
+  }
+
+  @Benchmark
+  public List<Message> framedBinaryRoundTrip() {
+    return framedBinary.from(framedBinary.to(newArrayList(msg)));
+  }
+
+  @Benchmark
+  public byte[] decodedBroadcast() {
+    Message in = MessageCodec.decode(ByteBuffer.wrap(binary));
+    String str = in.getFirst("user") + " says: " + in.getFirst("message");
+    return message(MESSAGE, in.corrId()).with("message", str).binary();
+  }
+
+  @Benchmark
+  public byte[] passThroughBroadcast() {
+    Message in = MessageCodec.wrap(ByteBuffer.wrap(binary));
+    ByteBuffer[] values = MessageCodec.values(in.encoded(), "room", "user", "message");
+    return MessageCodec.builder(MESSAGE, in.corrId(), 1).with("message", values[1], SAYS, values[2]).build();
+  }
+}
@@ -0,0 +1,139 @@
+package chat.load;
+
+import chat.server.Chat;
+import chat.server.ChatCluster;
+import chat.server.ChatRoom;
+import chat.server.ChatService;
+import chat.server.NegotiatingTranslator;
+import network.ExecutionStage;
+import network.NetworkServer;
+import org.apache.log4j.Logger;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.Lists.newArrayList;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * runs clusters of in process nodes on localhost, the users split evenly over
+ * the nodes with one load generator each, and reports the deliveries of all
+ * generators together, once per cluster size.
+ *
+ *   java -cp benchmarks/target/benchmarks.jar chat.load.ClusterBenchmark \
+ *       --nodes 1,2,4 --users 4000 --duration 30 --rate 0.5
+ *
+ * node i serves chat on port + i and links to its peers on port + 100 + i.
+ * any other option is passed on to the load generators.
+ */
+public class ClusterBenchmark {
+  private static final Logger logger = Logger.getLogger(ClusterBenchmark.class);
+  private static final int CLUSTER_PORT_OFFSET = 100;
+
+  public static void main(String[] args) throws Exception {
+    List<Integer> sizes = Arrays.asList(1, 2, 4);
+    long batchMicros = 100;
+    List<String> rest = newArrayList();
+    for (int i = 0; i < args.length; i += 2) {
+      checkArgument(i + 1 < args.length, "missing value for " + args[i]);
+      if (args[i].equals("--nodes")) {
+        sizes = Arrays.stream(args[i + 1].split(",")).map(Integer::valueOf).collect(toList());
+      } else if (args[i].equals("--batch-micros")) {
+        batchMicros = Long.parseLong(args[i + 1]);
+      } else {
+        rest.add(args[i]);
+        rest.add(args[i + 1]);
+      }
+    }
+
+    int base = LoadConfig.parse(rest.toArray(new String[0])).port;
+    for (int nodes : sizes) {
+      System.out.println(String.format("== %d nodes", nodes));
+      List<Node> cluster = newArrayList();
+      for (int i = 0; i < nodes; i++) {
+        cluster.add(new Node(base + i));
+      }
+      for (Node node : cluster) {
+        node.link(cluster, batchMicros);
+      }
+      // every node dialed every other one before the users arrive
+      Thread.sleep(2000);
+
+      ExecutorService generators = Executors.newFixedThreadPool(nodes);
+      List<LoadGenerator> runs = newArrayList();
+      List<Future<?>> done = newArrayList();
+      int duration = 0;
+      for (Node node : cluster) {
+        LoadConfig config = LoadConfig.parse(rest.toArray(new String[0]));
+        config.port = node.port;
+        config.users = Math.max(1, config.users / nodes);
+        duration = config.durationSeconds;
+        LoadGenerator run = new LoadGenerator(config);
+        runs.add(run);
+        done.add(generators.submit(() -> {
+          run.run();
+          return null;
+        }));
+      }
+      for (Future<?> future : done) {
+        future.get();
+      }
+      generators.shutdown();
+
+      long deliveries = runs.stream().mapToLong(LoadGenerator::deliveries).sum();
+      System.out.println(String.format("aggregate: nodes=%d deliveries=%d throughput=%.0f/s",
+          nodes, deliveries, (double) deliveries / duration));
+      for (Node node : cluster) {
+        System.out.println(String.format("node %d: forwarded=%d delivered=%d",
+            node.port, node.cluster.forwarded(), node.cluster.delivered()));
+        node.stop();
+      }
+      base += nodes;
+      Thread.sleep(1000);
+    }
+    System.exit(0);
+  }
+
+  private static final class Node {
+    final int port;
+    final NetworkServer server;
+    final ExecutionStage stage;
+    final ChatCluster cluster;
+
+    Node(int port) throws Exception {
+      this.port = port;
+      Chat chat = new Chat().rooms(
+          new ChatRoom("Java Programming"),
+          new ChatRoom("C++ Programming"),
+          new ChatRoom("Python Programming"));
+      int cores = Runtime.getRuntime().availableProcessors();
+      server = new NetworkServer().workers(cores);
+      ChatService service = new ChatService(server, chat, NegotiatingTranslator::new);
+      stage = new ExecutionStage(service, cores, 4096);
+      server.addListener(stage);
+      server.bind(port);
+      cluster = new ChatCluster(service);
+    }
+
+    void link(List<Node> nodes, long batchMicros) throws Exception {
+      for (Node peer : nodes) {
+        if (peer != this) {
+          cluster.peer("localhost", peer.port + CLUSTER_PORT_OFFSET);
+        }
+      }
+      cluster.batchDelay(batchMicros, TimeUnit.MICROSECONDS).bind(port + CLUSTER_PORT_OFFSET);
+    }
+
+    void stop() {
+      cluster.stop();
+      server.stop();
+      logger.info("execution stage: " + stage);
+      stage.stop();
+    }
+  }
+}
@@ -0,0 +1,82 @@
+package chat.load;
+
+import chat.server.WireFormat;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * settings of a load run, parsed from --name value pairs
+ */
+class LoadConfig {
+  String host = "localhost";
+  int port = 9999;
+  int users = 1000;
+  int loops = 2;
+  int durationSeconds = 30;
+  double rate = 1.0;
+  int joinWeight = 1;
+  int messageWeight = 98;
+  int leaveWeight = 1;
+  Distribution distribution = Distribution.UNIFORM;
+  double zipfExponent = 1.0;
+  WireFormat format = WireFormat.FRAMED_BINARY;
+
+  enum Distribution {
+    UNIFORM, ZIPF
+  }
+
+  static LoadConfig parse(String[] args) {
+    LoadConfig config = new LoadConfig();
+    for (int i = 0; i < args.length; i += 2) {
+      checkArgument(i + 1 < args.length, "missing value for " + args[i]);
+      String value = args[i + 1];
+      switch (args[i]) {
+        case "--host":
+          config.host = value;
+          break;
+        case "--port":
+          config.port = Integer.parseInt(value);
+          break;
+        case "--users":
+          config.users = Integer.parseInt(value);
+          break;
+        case "--loops":
+          config.loops = Integer.parseInt(value);
+          break;
+        case "--duration":
+          config.durationSeconds = Integer.parseInt(value);
+          break;
+        case "--rate":
+          config.rate = Double.parseDouble(value);
+          break;
+        case "--mix":
+          String[] weights = value.split(":");
+          checkArgument(weights.length == 3, "mix is join:message:leave");
+          config.joinWeight = Integer.parseInt(weights[0]);
+          config.messageWeight = Integer.parseInt(weights[1]);
+          config.leaveWeight = Integer.parseInt(weights[2]);
+          break;
+        case "--distribution":
+          config.distribution = Distribution.valueOf(value.toUpperCase());
+          break;
+        case "--zipf":
+          config.zipfExponent = Double.parseDouble(value);
+          break;
+        case "--format":
+          config.format = WireFormat.valueOf(value.toUpperCase());
+          break;
+        default:
+          throw new IllegalArgumentException("unknown option " + args[i]);
+      }
+    }
+    checkArgument(config.users > 0, "users must be positive");
+    checkArgument(config.joinWeight + config.messageWeight + config.leaveWeight > 0, "mix cannot be empty");
+    return config;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("host=%s port=%d users=%d loops=%d duration=%ds rate=%.2f/s mix=%d:%d:%d distribution=%s format=%s",
+        host, port, users, loops, durationSeconds, rate, joinWeight, messageWeight, leaveWeight, distribution, format);
+  }
+}
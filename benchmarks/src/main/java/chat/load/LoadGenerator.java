@@ -0,0 +1,232 @@
+package chat.load;
+
+import chat.common.Message;
+import chat.common.MessageType;
+import com.google.common.collect.Maps;
+import network.NetworkConnector;
+import network.NetworkEvent;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.apache.log4j.Logger;
+
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static chat.common.Message.message;
+import static chat.common.MessageType.*;
+import static com.google.common.collect.Lists.newArrayList;
+import static network.NetworkEventType.CONNECT;
+import static network.NetworkEventType.DISCONNECT;
+import static network.NetworkEventType.READ;
+
+/**
+ * drives thousands of simulated chat users against a running chat.server.Main
+ * over a few selector loops and reports throughput and send to receive latency.
+ *
+ *   java -cp benchmarks/target/benchmarks.jar chat.load.LoadGenerator \
+ *       --users 5000 --loops 4 --rate 0.5 --mix 1:98:1 --distribution zipf
+ */
+public class LoadGenerator {
+  private static final Logger logger = Logger.getLogger(LoadGenerator.class);
+  private static final String STAMP = "ts:";
+  private static final String ROOMS_CORR_ID = "rooms";
+  private static final long TICK_MILLIS = 10;
+
+  public static void main(String[] args) throws Exception {
+    LoadConfig config = LoadConfig.parse(args);
+    logger.info("load config: " + config);
+    new LoadGenerator(config).run();
+    System.exit(0);
+  }
+
+  private final LoadConfig config;
+  private final NetworkConnector network = new NetworkConnector();
+  private final Map<SocketChannel, SimulatedUser> users = Maps.newConcurrentMap();
+  private final Recorder latencies = new Recorder(3);
+  private final Histogram total = new Histogram(3);
+  private final LongAdder sent = new LongAdder();
+  private final LongAdder received = new LongAdder();
+  private final CompletableFuture<List<String>> rooms = new CompletableFuture<>();
+  private final CountDownLatch connected;
+  private double[] roomWeights;
+
+  public LoadGenerator(LoadConfig config) {
+    this.config = config;
+    this.connected = new CountDownLatch(config.users);
+  }
+
+  public void run() throws Exception {
+    network.addListener(this::onEvent);
+    network.start(config.loops);
+
+    for (int i = 0; i < config.users; i++) {
+      SocketChannel channel = SocketChannel.open();
+      users.put(channel, new SimulatedUser("user" + i, channel, config.format.translator()));
+      network.connect(channel, config.host, config.port);
+    }
+    if (!connected.await(60, TimeUnit.SECONDS)) {
+      logger.warn((config.users - connected.getCount()) + " of " + config.users + " users connected");
+    }
+
+    SimulatedUser first = users.values().iterator().next();
+    send(first, message(GET_ROOMS, ROOMS_CORR_ID));
+    List<String> names = rooms.get(10, TimeUnit.SECONDS);
+    roomWeights = weights(names.size());
+    logger.info("rooms: " + names);
+
+    for (SimulatedUser user : users.values()) {
+      join(user, names);
+    }
+
+    ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+    scheduler.scheduleAtFixedRate(() -> tick(names), TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    scheduler.scheduleAtFixedRate(this::report, 1, 1, TimeUnit.SECONDS);
+
+    Thread.sleep(TimeUnit.SECONDS.toMillis(config.durationSeconds));
+    scheduler.shutdownNow();
+    report();
+    summary();
+    network.stop();
+  }
+
+  private void onEvent(NetworkEvent evt) {
+    SimulatedUser user = users.get(evt.channel());
+    if (user == null) {
+      return;
+    }
+
+    if (evt.type() == CONNECT) {
+      if (config.format.preamble() != null) {
+        network.send(evt.channel(), new byte[]{config.format.preamble()});
+      }
+      user.connected();
+      connected.countDown();
+    } else if (evt.type() == READ) {
+      long now = System.nanoTime();
+      for (Message msg : user.translator().from(evt.getData())) {
+        if (ROOMS_CORR_ID.equals(msg.corrId())) {
+          rooms.complete(msg.get("rooms"));
+        } else if (msg.type() == PING) {
+          send(user, message(PONG, msg.corrId()));
+        } else if (msg.type() == MESSAGE) {
+          record(now, msg.getFirst("message"));
+        }
+      }
+    } else if (evt.type() == DISCONNECT) {
+      logger.warn(user.name() + " disconnected");
+      users.remove(evt.channel());
+    }
+  }
+
+  private void record(long now, String text) {
+    int stamp = text.lastIndexOf(STAMP);
+    if (stamp >= 0) {
+      long sentAt = Long.parseLong(text.substring(stamp + STAMP.length()));
+      latencies.recordValue(Math.max(0, TimeUnit.NANOSECONDS.toMicros(now - sentAt)));
+      received.increment();
+    }
+  }
+
+  /**
+   * every user acts with probability rate * tick, the action drawn from the mix
+   */
+  private void tick(List<String> names) {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    double probability = config.rate * TICK_MILLIS / 1000.0;
+    int weights = config.joinWeight + config.messageWeight + config.leaveWeight;
+
+    for (SimulatedUser user : users.values()) {
+      if (!user.isConnected() || random.nextDouble() >= probability) {
+        continue;
+      }
+      int action = random.nextInt(weights);
+      if (action < config.joinWeight || user.rooms().isEmpty()) {
+        join(user, names);
+      } else if (action < config.joinWeight + config.messageWeight) {
+        String room = user.rooms().get(random.nextInt(user.rooms().size()));
+        send(user, message(MESSAGE)
+            .with("room", room)
+            .with("user", user.name())
+            .with("message", STAMP + System.nanoTime()));
+      } else {
+        String room = user.rooms().remove(random.nextInt(user.rooms().size()));
+        send(user, message(LEAVE).with("room", room));
+      }
+    }
+  }
+
+  private void join(SimulatedUser user, List<String> names) {
+    String room = names.get(pick());
+    if (!user.rooms().contains(room)) {
+      user.rooms().add(room);
+      send(user, message(JOIN).with("room", room).with("user", user.name()));
+    }
+  }
+
+  private void send(SimulatedUser user, Message msg) {
+    network.send(user.channel(), config.format.encode(newArrayList(msg)));
+    if (msg.type() == MessageType.MESSAGE) {
+      sent.increment();
+    }
+  }
+
+  /**
+   * cumulative room weights, uniform or zipf over the room index
+   */
+  private double[] weights(int count) {
+    double[] cumulative = new double[count];
+    double sum = 0;
+    for (int i = 0; i < count; i++) {
+      sum += config.distribution == LoadConfig.Distribution.ZIPF ? 1.0 / Math.pow(i + 1, config.zipfExponent) : 1.0;
+      cumulative[i] = sum;
+    }
+    for (int i = 0; i < count; i++) {
+      cumulative[i] /= sum;
+    }
+    return cumulative;
+  }
+
+  private int pick() {
+    int index = Arrays.binarySearch(roomWeights, ThreadLocalRandom.current().nextDouble());
+    return Math.min(roomWeights.length - 1, index >= 0 ? index : -index - 1);
+  }
+
+  private void report() {
+    Histogram interval = latencies.getIntervalHistogram();
+    synchronized (total) {
+      total.add(interval);
+    }
+    System.out.println(String.format("sent=%d received=%d interval: count=%d p50=%dus p99=%dus p99.9=%dus max=%dus",
+        sent.sumThenReset(), received.sumThenReset(), interval.getTotalCount(),
+        interval.getValueAtPercentile(50), interval.getValueAtPercentile(99),
+        interval.getValueAtPercentile(99.9), interval.getMaxValue()));
+  }
+
+  /**
+   * stamped messages received over the whole run
+   */
+  long deliveries() {
+    synchronized (total) {
+      return total.getTotalCount();
+    }
+  }
+
+  private void summary() {
+    synchronized (total) {
+      System.out.println(String.format("total: deliveries=%d throughput=%.0f/s p50=%dus p90=%dus p99=%dus p99.9=%dus max=%dus",
+          total.getTotalCount(), (double) total.getTotalCount() / config.durationSeconds,
+          total.getValueAtPercentile(50), total.getValueAtPercentile(90), total.getValueAtPercentile(99),
+          total.getValueAtPercentile(99.9), total.getMaxValue()));
+      System.out.println("network: " + network.stats());
+    }
+  }
+}
@@ -0,0 +1,93 @@
+package chat.load;
+
+import chat.server.Chat;
+import chat.server.ChatRoom;
+import chat.server.ChatService;
+import chat.server.NegotiatingTranslator;
+import network.BlockingNetworkServer;
+import network.ExecutionStage;
+import network.NetworkServer;
+import org.apache.log4j.Logger;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.Lists.newArrayList;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * runs the same load against an in process selector server and a thread per
+ * connection server at each connection count, one after the other.
+ *
+ *   java -cp benchmarks/target/benchmarks.jar chat.load.ServerComparison \
+ *       --connections 10000,50000,100000 --modes nio,blocking --duration 30 --rate 0.1
+ *
+ * every connection costs a descriptor on both sides, raise ulimit -n accordingly.
+ * any other option is passed on to the load generator.
+ */
+public class ServerComparison {
+  private static final Logger logger = Logger.getLogger(ServerComparison.class);
+
+  public static void main(String[] args) throws Exception {
+    List<Integer> connections = Arrays.asList(10_000, 50_000, 100_000);
+    List<String> modes = Arrays.asList("nio", "blocking");
+    List<String> rest = newArrayList();
+    for (int i = 0; i < args.length; i += 2) {
+      checkArgument(i + 1 < args.length, "missing value for " + args[i]);
+      if (args[i].equals("--connections")) {
+        connections = Arrays.stream(args[i + 1].split(",")).map(Integer::valueOf).collect(toList());
+      } else if (args[i].equals("--modes")) {
+        modes = Arrays.asList(args[i + 1].split(","));
+      } else {
+        rest.add(args[i]);
+        rest.add(args[i + 1]);
+      }
+    }
+
+    int run = 0;
+    for (int count : connections) {
+      for (String mode : modes) {
+        LoadConfig config = LoadConfig.parse(rest.toArray(new String[0]));
+        config.users = count;
+        config.port += run++;
+        System.out.println(String.format("== %s, %d connections", mode, count));
+        Runnable stop = start(mode, config.port);
+        try {
+          new LoadGenerator(config).run();
+        } finally {
+          stop.run();
+        }
+        Thread.sleep(1000);
+      }
+    }
+    System.exit(0);
+  }
+
+  /**
+   * returns what stops the server again
+   */
+  private static Runnable start(String mode, int port) throws Exception {
+    Chat chat = new Chat().rooms(
+        new ChatRoom("Java Programming"),
+        new ChatRoom("C++ Programming"),
+        new ChatRoom("Python Programming"));
+
+    if (mode.equals("blocking")) {
+      BlockingNetworkServer server = new BlockingNetworkServer();
+      server.addListener(new ChatService(server, chat, NegotiatingTranslator::new));
+      server.bind(port);
+      return server::stop;
+    }
+    int cores = Runtime.getRuntime().availableProcessors();
+    NetworkServer server = new NetworkServer().workers(cores);
+    ExecutionStage stage = new ExecutionStage(new ChatService(server, chat, NegotiatingTranslator::new), cores, 4096);
+    server.addListener(stage);
+    server.bind(port);
+    return () -> {
+      server.stop();
+      logger.info("execution stage: " + stage);
+      stage.stop();
+    };
+  }
+}
@@ -0,0 +1,49 @@
+package chat.load;
+
+import chat.common.Message;
+import network.Translator;
+
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * one simulated chat user, decoding only happens on the loop owning its channel
+ */
+class SimulatedUser {
+  private final String name;
+  private final SocketChannel channel;
+  private final Translator<byte[], List<Message>> translator;
+  private final List<String> rooms = new CopyOnWriteArrayList<>();
+  private volatile boolean connected;
+
+  SimulatedUser(String name, SocketChannel channel, Translator<byte[], List<Message>> translator) {
+    this.name = name;
+    this.channel = channel;
+    this.translator = translator;
+  }
+
+  String name() {
+    return name;
+  }
+
+  SocketChannel channel() {
+    return channel;
+  }
+
+  Translator<byte[], List<Message>> translator() {
+    return translator;
+  }
+
+  List<String> rooms() {
+    return rooms;
+  }
+
+  boolean isConnected() {
+    return connected;
+  }
+
+  void connected() {
+    this.connected = true;
+  }
+}
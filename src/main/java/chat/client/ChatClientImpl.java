@@ -4,7 +4,9 @@ import chat.common.Message;
 import com.google.common.collect.Maps;
 import network.NetworkClient;
 import network.NetworkListener;
+import network.Timeout;
 import chat.server.ChatRoom;
+import chat.server.WireFormat;
 import network.Translator;
 import org.apache.log4j.Logger;
 
@@ -12,27 +14,42 @@ import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static chat.common.Message.message;
 import static chat.common.MessageType.*;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.collect.Lists.newArrayList;
-import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.stream.Collectors.toList;
+import static network.NetworkEventType.DISCONNECT;
 
+/**
+ * requests are pipelined on the one connection, each gets the next number
+ * behind a prefix unique to the client as its correlation id and a future
+ * completed by the reply carrying it. room broadcasts carry the correlation id
+ * of the member's request that caused them, so a message whose id matches no
+ * request of this client goes to the listeners. a request without a reply in
+ * time fails with a TimeoutException and is forgotten, the deadlines live on
+ * the timing wheel of the client's selector loop.
+ */
 public class ChatClientImpl implements ChatClient {
   private static final Logger logger = Logger.getLogger(ChatClientImpl.class);
-  private static final long timeout = 5;
 
   private final String host;
   private final int port;
   private final NetworkClient network;
   private final List<ChatListener> listeners = new CopyOnWriteArrayList<>();
-  private final Map<String, Processor> processors = Maps.newConcurrentMap();
+  private final Map<String, Pending> pending = Maps.newConcurrentMap();
+  private final String corrIdPrefix = UUID.randomUUID() + "-";
+  private final AtomicLong nextCorrId = new AtomicLong();
   private final Translator<byte[], List<Message>> translator;
+  private volatile long timeoutMillis = 5000;
 
   public ChatClientImpl(String host, int port, Translator<byte[], List<Message>> translator) {
     this.host = host;
@@ -42,7 +59,9 @@ public class ChatClientImpl implements ChatClient {
       List<Message> msgs = translator.from(bytes);
       if (msgs != null && !msgs.isEmpty()) {
         for (Message msg : msgs) {
-          if (msg.corrId() != null) {
+          if (msg.type() == PING) {
+            send(message(PONG, msg.corrId()));
+          } else if (msg.corrId() != null) {
             notifyProcessor(msg);
           } else {
             notifyListeners(msg);
@@ -50,9 +69,33 @@ public class ChatClientImpl implements ChatClient {
         }
       }
     });
+    this.network.addListener(evt -> {
+      if (evt.type() == DISCONNECT) {
+        failPending(new IOException("connection closed"));
+      }
+    });
     this.translator = translator;
   }
 
+  /**
+   * speaks the given format to a server negotiating formats per connection
+   */
+  public ChatClientImpl(String host, int port, WireFormat format) {
+    this(host, port, format.translator());
+    if (format.preamble() != null) {
+      this.network.onConnected(channel -> network.send(new byte[]{format.preamble()}));
+    }
+  }
+
+  /**
+   * how long a request waits for its reply
+   */
+  public ChatClientImpl timeout(long timeout, TimeUnit unit) {
+    checkArgument(timeout > 0, "timeout must be positive");
+    this.timeoutMillis = unit.toMillis(timeout);
+    return this;
+  }
+
   @Override
   public void addListener(ChatListener lstn) {
     listeners.add(lstn);
@@ -93,31 +136,51 @@ public class ChatClientImpl implements ChatClient {
     send(message(LEAVE).with("room", room));
   }
 
+  /**
+   * blocks for the reply, null when it does not come in time
+   */
   @Override
   public List<ChatRoom> getChatRooms() {
-    String corrId = corrId();
-    BlockingQueue<Message> queue = new LinkedBlockingDeque<>();
-    processors.put(corrId, msg -> queue.add(msg));
     try {
-      send(message(GET_ROOMS, corrId));
-      return queue.poll(timeout, SECONDS).get("rooms")
-          .stream()
-          .map(ChatRoom::new)
-          .collect(toList());
+      return chatRooms().get();
     } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
       logger.error(e.getMessage(), e);
       return null;
+    } catch (ExecutionException e) {
+      logger.error("Error getting chat rooms", e.getCause());
+      return null;
     }
   }
 
+  public CompletableFuture<List<ChatRoom>> chatRooms() {
+    return request(message(GET_ROOMS)).thenApply(reply -> reply.get("rooms")
+        .stream()
+        .map(ChatRoom::new)
+        .collect(toList()));
+  }
+
+  public CompletableFuture<List<String>> chatRoomUsers(String room) {
+    return request(message(GET_ROOM_USERS).with("room", room)).thenApply(reply -> reply.get("users"));
+  }
+
+  /**
+   * sends the message under the next correlation id, any correlation id it had
+   * is replaced. the future fails with a TimeoutException when no reply comes
+   * in time and with an IOException when the connection closes first.
+   */
+  public CompletableFuture<Message> request(Message msg) {
+    checkArgument(msg != null, "message cannot be null");
+    return send(msg.withCorrId(corrIdPrefix + nextCorrId.incrementAndGet()), new CompletableFuture<>());
+  }
+
   public void stop() {
     network.stop();
+    failPending(new IOException("client stopped"));
   }
 
   public void getChatRooms(Processor processor) {
-    String corrId = UUID.randomUUID().toString();
-    processors.put(corrId, processor);
-    send(message(GET_ROOMS, corrId));
+    request(message(GET_ROOMS)).thenAccept(processor::process);
   }
 
   private void send(Message msg) {
@@ -125,25 +188,60 @@ public class ChatClientImpl implements ChatClient {
   }
 
   public void getChatRoomUsers(String room, Processor processor) {
-    String corrId = UUID.randomUUID().toString();
-    processors.put(corrId, processor);
-    send(new Message(GET_ROOM_USERS, corrId).with("room", room));
+    request(message(GET_ROOM_USERS).with("room", room)).thenAccept(processor::process);
   }
 
+  /**
+   * sends a message carrying its own correlation id, the processor gets the
+   * reply unless it times out
+   */
   public void send(Message message, Processor processor) {
     checkArgument(message != null, "message cannot be null");
     checkArgument(message.getCorrelationId() != null, "processor.correlationId cannot be null");
     checkArgument(processor != null, "processor cannot be null");
-    processors.put(message.getCorrelationId(), processor);
-    send(message);
+    send(message, new CompletableFuture<>()).thenAccept(processor::process);
+  }
+
+  private CompletableFuture<Message> send(Message msg, CompletableFuture<Message> reply) {
+    String corrId = msg.corrId();
+    try {
+      Timeout expiry = network.schedule(() -> {
+        Pending expired = pending.remove(corrId);
+        if (expired != null) {
+          expired.reply.completeExceptionally(new TimeoutException("no reply to " + msg.type() + " " + corrId));
+        }
+      }, timeoutMillis, MILLISECONDS);
+      pending.put(corrId, new Pending(reply, expiry));
+      send(msg);
+    } catch (RuntimeException e) {
+      Pending failed = pending.remove(corrId);
+      if (failed != null) {
+        failed.expiry.cancel();
+      }
+      reply.completeExceptionally(e);
+    }
+    return reply;
   }
 
   private void notifyProcessor(Message msg) {
-    Processor processor = processors.remove(msg.corrId());
-    if (processor == null) {
-      throw new RuntimeException("processor not found for corrId: " + msg.corrId());
+    Pending request = pending.remove(msg.corrId());
+    if (request == null) {
+      // another member's request, or a reply that came after the timeout
+      notifyListeners(msg);
+      return;
+    }
+    request.expiry.cancel();
+    request.reply.complete(msg);
+  }
+
+  private void failPending(Exception cause) {
+    for (String corrId : pending.keySet()) {
+      Pending request = pending.remove(corrId);
+      if (request != null) {
+        request.expiry.cancel();
+        request.reply.completeExceptionally(cause);
+      }
     }
-    processor.process(msg);
   }
 
   private void notifyListeners(Message msg) {
@@ -152,7 +250,13 @@ public class ChatClientImpl implements ChatClient {
     }
   }
 
-  private String corrId() {
-    return UUID.randomUUID().toString();
+  private static final class Pending {
+    final CompletableFuture<Message> reply;
+    final Timeout expiry;
+
+    Pending(CompletableFuture<Message> reply, Timeout expiry) {
+      this.reply = reply;
+      this.expiry = expiry;
+    }
   }
 }
@@ -3,6 +3,7 @@ package chat.common;
 import com.google.common.collect.Maps;
 import com.google.gson.Gson;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
 
@@ -28,13 +29,22 @@ public class Message {
 
   private final MessageType type;
   private final String correlationId;
-  private final Map<String, List<String>> attrs = Maps.newHashMap();
+  private volatile Map<String, List<String>> attrs = Maps.newHashMap();
+  // binary form the attributes are decoded from on first use, dropped once modified
+  private transient ByteBuffer encoded;
 
   public Message(MessageType type, String correlationId) {
     this.type = type;
     this.correlationId = correlationId;
   }
 
+  Message(MessageType type, String correlationId, ByteBuffer encoded) {
+    this.type = type;
+    this.correlationId = correlationId;
+    this.encoded = encoded;
+    this.attrs = null;
+  }
+
   public Message(MessageType type) {
     this(type, null);
   }
@@ -48,23 +58,34 @@ public class Message {
   }
 
   public List<String> get(String name) {
-    return attrs.get(name);
+    return attrs().get(name);
   }
 
   public String getFirst(String name) {
-    return attrs.get(name).get(0);
+    return attrs().get(name).get(0);
   }
 
   public Message with(String name, String value) {
-    attrs.put(name, newArrayList(value));
+    attrs().put(name, newArrayList(value));
+    encoded = null;
     return this;
   }
 
   public Message with(String name, List<String> values) {
-    values.stream().forEach(val -> with(name, val));
+    attrs().put(name, newArrayList(values));
+    encoded = null;
     return this;
   }
 
+  /**
+   * a copy of this message under another correlation id
+   */
+  public Message withCorrId(String corrId) {
+    Message copy = new Message(type, corrId);
+    copy.attrs().putAll(attrs());
+    return copy;
+  }
+
   public MessageType type() {
     return type;
   }
@@ -74,6 +95,30 @@ public class Message {
   }
 
   public String json() {
+    attrs();
     return gson.toJson(this);
   }
+
+  public byte[] binary() {
+    return MessageCodec.encode(this);
+  }
+
+  /**
+   * the binary form this message was read from, as long as nothing changed it,
+   * otherwise null
+   */
+  public ByteBuffer encoded() {
+    ByteBuffer bytes = encoded;
+    return bytes == null ? null : bytes.duplicate();
+  }
+
+  Map<String, List<String>> attrs() {
+    Map<String, List<String>> decoded = attrs;
+    ByteBuffer bytes = encoded;
+    if (decoded == null && bytes != null) {
+      decoded = MessageCodec.decode(bytes.duplicate()).attrs;
+      attrs = decoded;
+    }
+    return decoded;
+  }
 }
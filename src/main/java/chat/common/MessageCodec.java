@@ -0,0 +1,318 @@
+package chat.common;
+
+import com.google.common.collect.Lists;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * compact binary form of a Message, used instead of json on the hot path.
+ *
+ * type ordinal byte, correlation id, attribute count, then every attribute as
+ * key followed by its values. strings are a varint length and UTF-8 bytes, a
+ * correlation id length is shifted by one so zero means null. well known keys
+ * are written as their index in KEYS plus one, any other key as zero and the
+ * key string.
+ *
+ * wrap() only reads the type and correlation id, the attributes are decoded when
+ * first asked for and an unchanged message encodes back to the bytes it came
+ * from, so a frame can be routed and forwarded without being decoded.
+ */
+public final class MessageCodec {
+  private static final String[] KEYS = {"room", "user", "message", "rooms", "users"};
+  private static final MessageType[] TYPES = MessageType.values();
+
+  private MessageCodec() {
+  }
+
+  public static byte[] encode(Message msg) {
+    ByteBuffer encoded = msg.encoded();
+    if (encoded != null) {
+      byte[] bytes = new byte[encoded.remaining()];
+      encoded.get(bytes);
+      return bytes;
+    }
+
+    Writer out = new Writer();
+    out.writeByte(msg.type().ordinal());
+
+    if (msg.corrId() == null) {
+      out.writeVarint(0);
+    } else {
+      byte[] corrId = msg.corrId().getBytes(UTF_8);
+      out.writeVarint(corrId.length + 1);
+      out.writeBytes(corrId);
+    }
+
+    Map<String, List<String>> attrs = msg.attrs();
+    out.writeVarint(attrs.size());
+    for (Map.Entry<String, List<String>> attr : attrs.entrySet()) {
+      int key = keyIndex(attr.getKey());
+      out.writeVarint(key);
+      if (key == 0) {
+        out.writeString(attr.getKey());
+      }
+      out.writeVarint(attr.getValue().size());
+      for (String value : attr.getValue()) {
+        out.writeString(value);
+      }
+    }
+
+    return out.toByteArray();
+  }
+
+  /**
+   * reads one message from the remaining bytes of the buffer
+   */
+  public static Message decode(ByteBuffer in) {
+    Message msg = new Message(readType(in), readCorrId(in));
+
+    int count = readVarint(in);
+    Map<String, List<String>> attrs = msg.attrs();
+    for (int i = 0; i < count; i++) {
+      int key = readVarint(in);
+      String name = key == 0 ? readString(in, readVarint(in)) : knownKey(key);
+      int size = readVarint(in);
+      List<String> values = Lists.newArrayListWithCapacity(size);
+      for (int j = 0; j < size; j++) {
+        values.add(readString(in, readVarint(in)));
+      }
+      attrs.put(name, values);
+    }
+
+    return msg;
+  }
+
+  /**
+   * reads one message from the remaining bytes of the buffer, checking its
+   * structure but leaving the attributes encoded. the message keeps a view of
+   * the buffer's bytes, which must not be reused while it is around.
+   */
+  public static Message wrap(ByteBuffer in) {
+    ByteBuffer encoded = in.slice();
+    int start = in.position();
+    MessageType type = readType(in);
+    String corrId = readCorrId(in);
+
+    int count = readVarint(in);
+    for (int i = 0; i < count; i++) {
+      int key = readVarint(in);
+      if (key == 0) {
+        skip(in, readVarint(in));
+      } else {
+        knownKey(key);
+      }
+      int size = readVarint(in);
+      for (int j = 0; j < size; j++) {
+        skip(in, readVarint(in));
+      }
+    }
+
+    encoded.limit(in.position() - start);
+    return new Message(type, corrId, encoded);
+  }
+
+  /**
+   * first value of each of the keys as a view of the encoded message, null for
+   * a missing key, without decoding any other attribute
+   */
+  public static ByteBuffer[] values(ByteBuffer encoded, String... keys) {
+    ByteBuffer in = encoded.duplicate();
+    ByteBuffer[] values = new ByteBuffer[keys.length];
+    readType(in);
+    skip(in, Math.max(0, readVarint(in) - 1));
+
+    int count = readVarint(in);
+    for (int i = 0; i < count; i++) {
+      int key = readVarint(in);
+      String name = key == 0 ? readString(in, readVarint(in)) : knownKey(key);
+      int size = readVarint(in);
+      for (int j = 0; j < size; j++) {
+        int length = readVarint(in);
+        if (j == 0) {
+          for (int k = 0; k < keys.length; k++) {
+            if (values[k] == null && keys[k].equals(name)) {
+              values[k] = (ByteBuffer) in.slice().limit(length);
+            }
+          }
+        }
+        skip(in, length);
+      }
+    }
+    return values;
+  }
+
+  public static String string(ByteBuffer value) {
+    return readString(value.duplicate(), value.remaining());
+  }
+
+  /**
+   * encodes a message straight from byte views, each attribute having a single
+   * value made of the given parts
+   */
+  public static Builder builder(MessageType type, String corrId, int attributes) {
+    return new Builder(type, corrId, attributes);
+  }
+
+  public static final class Builder {
+    private final Writer out = new Writer();
+    private int attributes;
+
+    private Builder(MessageType type, String corrId, int attributes) {
+      out.writeByte(type.ordinal());
+      if (corrId == null) {
+        out.writeVarint(0);
+      } else {
+        byte[] bytes = corrId.getBytes(UTF_8);
+        out.writeVarint(bytes.length + 1);
+        out.writeBytes(bytes);
+      }
+      out.writeVarint(attributes);
+      this.attributes = attributes;
+    }
+
+    public Builder with(String key, ByteBuffer... parts) {
+      checkState(attributes-- > 0, "more attributes than declared");
+      int index = keyIndex(key);
+      out.writeVarint(index);
+      if (index == 0) {
+        out.writeString(key);
+      }
+      out.writeVarint(1);
+      int length = 0;
+      for (ByteBuffer part : parts) {
+        length += part.remaining();
+      }
+      out.writeVarint(length);
+      for (ByteBuffer part : parts) {
+        out.writeBytes(part);
+      }
+      return this;
+    }
+
+    public byte[] build() {
+      checkState(attributes == 0, "fewer attributes than declared");
+      return out.toByteArray();
+    }
+  }
+
+  private static MessageType readType(ByteBuffer in) {
+    int ordinal = in.get() & 0xff;
+    if (ordinal >= TYPES.length) {
+      throw new IllegalStateException("unknown message type " + ordinal);
+    }
+    return TYPES[ordinal];
+  }
+
+  private static String readCorrId(ByteBuffer in) {
+    int length = readVarint(in);
+    return length == 0 ? null : readString(in, length - 1);
+  }
+
+  private static void skip(ByteBuffer in, int length) {
+    if (length < 0 || length > in.remaining()) {
+      throw new IllegalStateException("string of " + length + " bytes past the end of the message");
+    }
+    in.position(in.position() + length);
+  }
+
+  static int keyIndex(String key) {
+    for (int i = 0; i < KEYS.length; i++) {
+      if (KEYS[i].equals(key)) {
+        return i + 1;
+      }
+    }
+    return 0;
+  }
+
+  static String knownKey(int index) {
+    if (index < 1 || index > KEYS.length) {
+      throw new IllegalStateException("unknown attribute key " + index);
+    }
+    return KEYS[index - 1];
+  }
+
+  static int readVarint(ByteBuffer in) {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      byte b = in.get();
+      value |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IllegalStateException("malformed varint");
+  }
+
+  static String readString(ByteBuffer in, int length) {
+    if (length > in.remaining()) {
+      throw new IllegalStateException("string of " + length + " bytes past the end of the message");
+    }
+    String str;
+    if (in.hasArray()) {
+      str = new String(in.array(), in.arrayOffset() + in.position(), length, UTF_8);
+    } else {
+      byte[] bytes = new byte[length];
+      in.duplicate().get(bytes);
+      str = new String(bytes, UTF_8);
+    }
+    in.position(in.position() + length);
+    return str;
+  }
+
+  /**
+   * growable byte array, avoids the synchronization of ByteArrayOutputStream
+   */
+  static class Writer {
+    private byte[] bytes = new byte[64];
+    private int size;
+
+    void writeByte(int b) {
+      ensure(1);
+      bytes[size++] = (byte) b;
+    }
+
+    void writeVarint(int value) {
+      ensure(5);
+      while ((value & ~0x7f) != 0) {
+        bytes[size++] = (byte) ((value & 0x7f) | 0x80);
+        value >>>= 7;
+      }
+      bytes[size++] = (byte) value;
+    }
+
+    void writeBytes(byte[] src) {
+      ensure(src.length);
+      System.arraycopy(src, 0, bytes, size, src.length);
+      size += src.length;
+    }
+
+    void writeBytes(ByteBuffer src) {
+      int count = src.remaining();
+      ensure(count);
+      src.duplicate().get(bytes, size, count);
+      size += count;
+    }
+
+    void writeString(String str) {
+      byte[] utf8 = str.getBytes(UTF_8);
+      writeVarint(utf8.length);
+      writeBytes(utf8);
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(bytes, size);
+    }
+
+    private void ensure(int count) {
+      if (size + count > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + count));
+      }
+    }
+  }
+}
@@ -4,5 +4,5 @@ package chat.common;
  * Created by Rafael on 1/15/2017.
  */
 public enum MessageType {
-  GET_ROOM_USERS, JOIN, MESSAGE, LEAVE, GET_ROOMS
+  GET_ROOM_USERS, JOIN, MESSAGE, LEAVE, GET_ROOMS, PING, PONG
 }
@@ -1,22 +1,32 @@
 package chat.server;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
+import network.Frame;
 import network.Network;
 
 import java.nio.channels.SocketChannel;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Optional;
 
 /**
  * Created by Rafael on 1/21/2017.
+ *
+ * safe to use from several threads, rooms are copy-on-write since they rarely change
  */
 public class Chat {
-  private final Map<String, ChatRoom> rooms = Maps.newHashMap();
+  private final Map<String, ChatRoom> rooms = Maps.newConcurrentMap();
+  private final Map<SocketChannel, ChatSession> sessions = Maps.newConcurrentMap();
+  private volatile ImmutableList<ChatRoom> roomList = ImmutableList.of();
+  private volatile ImmutableList<String> roomNames = ImmutableList.of();
 
-  public Chat room(ChatRoom room) {
+  public synchronized Chat room(ChatRoom room) {
     rooms.put(room.name(), room);
+    roomList = ImmutableList.copyOf(rooms.values());
+    roomNames = roomList.stream().map(ChatRoom::name).collect(ImmutableList.toImmutableList());
     return this;
   }
 
@@ -30,15 +40,69 @@ public class Chat {
   }
 
   public List<ChatRoom> rooms() {
-    return rooms.values().stream().collect(Collectors.toList());
+    return roomList;
+  }
+
+  public List<String> roomNames() {
+    return roomNames;
   }
 
   public void join(SocketChannel channel, String room, String user) {
-    rooms.get(room).user(user, channel);
+    ChatUser joined = new ChatUser(channel, user, rooms.get(room));
+    ChatUser renamed = session(channel).map(session -> session.user(room)).orElse(null);
+    if (renamed != null && !renamed.name().equals(user)) {
+      // rejoined under another name, the session only keeps one user per room
+      renamed.leave();
+    }
+    ChatUser previous = joined.room().user(joined);
+    if (previous != null && previous != joined) {
+      // name taken over by another connection, or rejoined under the same name
+      session(previous.channel()).ifPresent(session -> forget(session, previous));
+    }
+    sessions.compute(channel, (key, session) -> {
+      session = session == null ? new ChatSession(key) : session;
+      session.joined(joined);
+      return session;
+    });
+  }
+
+  /**
+   * leaves one room, returns the user that left or null when not a member
+   */
+  public ChatUser leave(SocketChannel channel, String room) {
+    ChatSession session = sessions.get(channel);
+    ChatUser user = session == null ? null : session.user(room);
+    if (user == null) {
+      return null;
+    }
+    user.leave();
+    forget(session, user);
+    return user;
+  }
+
+  /**
+   * leaves every room the connection joined and drops its session
+   */
+  public List<ChatUser> leave(SocketChannel channel) {
+    ChatSession session = sessions.remove(channel);
+    if (session == null) {
+      return Collections.emptyList();
+    }
+    List<ChatUser> users = session.users();
+    users.forEach(ChatUser::leave);
+    return users;
   }
 
-  public void send(Network network, ChatRoom room, byte[] bytes) {
-    room.send(network, bytes);
+  public Optional<ChatSession> session(SocketChannel channel) {
+    return Optional.ofNullable(sessions.get(channel));
+  }
+
+  public List<String> rooms(SocketChannel channel) {
+    return session(channel).map(ChatSession::rooms).orElse(Collections.emptyList());
+  }
+
+  public void send(Network network, ChatRoom room, Frame frame) {
+    room.send(network, frame);
   }
 
   public List<ChatUser> getUsers(String chatRoom) {
@@ -46,10 +110,15 @@ public class Chat {
   }
 
   public ChatUser user(SocketChannel channel) {
-    return rooms.values().stream()
-        .map(room -> room.user(channel))
-        .filter(user -> user != null)
-        .findFirst()
+    return session(channel).map(ChatSession::users)
+        .flatMap(users -> users.stream().findFirst())
         .orElse(null);
   }
+
+  private void forget(ChatSession session, ChatUser user) {
+    if (session.left(user)) {
+      // emptiness is checked under the map's lock so a concurrent join is never lost
+      sessions.computeIfPresent(session.channel(), (key, current) -> current == session && current.isEmpty() ? null : current);
+    }
+  }
 }
@@ -0,0 +1,373 @@
+package chat.server;
+
+import chat.common.Message;
+import chat.common.MessageCodec;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import metrics.MetricsRegistry;
+import network.BufferTranslator;
+import network.Frame;
+import network.LengthFieldDecoder;
+import network.NetworkClient;
+import network.NetworkEvent;
+import network.NetworkServer;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static chat.common.Message.message;
+import static chat.common.MessageType.JOIN;
+import static chat.common.MessageType.LEAVE;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.collect.Lists.newArrayList;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static network.NetworkEventType.ACCEPT;
+import static network.NetworkEventType.CONNECT;
+import static network.NetworkEventType.DISCONNECT;
+import static network.NetworkEventType.READ;
+
+/**
+ * bridges room broadcasts between chat servers. every node listens for its peers
+ * on a cluster port and dials every peer it is given, each link carries the rooms
+ * the dialed node has members in one way and the broadcasts to those rooms the
+ * other way, so a node only forwards to peers that have someone to deliver to.
+ *
+ * links carry length prefixed frames. the dialed node sends binary messages:
+ *
+ *   JOIN with rooms     the dialed node has members in these rooms
+ *   LEAVE with rooms    the dialed node has no members left in these rooms
+ *
+ * the dialing node sends broadcasts, each a 2 byte length and the room name
+ * followed by the binary message exactly as the local members got it, so a
+ * message read from a binary client is forwarded and delivered undecoded.
+ *
+ * a broadcast is framed once and queued on every interested link, the links'
+ * flush delay gathers what piles up meanwhile into one write. forwarded broadcasts
+ * are delivered to local members only and never forwarded again, so every node
+ * must dial every other one.
+ *
+ * interest spreads asynchronously, a broadcast sent before a peer heard of a
+ * join does not reach that peer's members. rooms that empty out are withdrawn
+ * by a periodic sweep, until then peers keep forwarding to them.
+ */
+public class ChatCluster {
+  private static final Logger logger = Logger.getLogger(ChatCluster.class);
+  private static final long RECONNECT_MILLIS = 1000;
+
+  private final ChatService service;
+  private final NetworkServer server = new NetworkServer();
+  private final List<Link> links = Lists.newCopyOnWriteArrayList();
+  // decoders of the links peers dialed, created on ACCEPT
+  private final Map<SocketChannel, LengthFieldDecoder> inbound = Maps.newConcurrentMap();
+  // rooms with local members as last told to the peers, changed under this cluster's lock
+  private final Set<String> announced = Sets.newConcurrentHashSet();
+  private final LongAdder forwarded = new LongAdder();
+  private final LongAdder delivered = new LongAdder();
+  private long batchDelayNanos = TimeUnit.MICROSECONDS.toNanos(100);
+  private long sweepMillis = 1000;
+  private volatile boolean stopped;
+
+  public ChatCluster(ChatService service) {
+    checkArgument(service != null, "service cannot be null");
+    this.service = service;
+    server.addListener(this::onPeerEvent);
+  }
+
+  /**
+   * a node to forward to, must be added before bind
+   */
+  public ChatCluster peer(String host, int port) {
+    checkArgument(host != null, "host cannot be null");
+    checkArgument(port >= 0, "port cannot be negative");
+    links.add(new Link(host, port));
+    return this;
+  }
+
+  /**
+   * how long a link holds broadcasts to write them together, zero writes each
+   * one on the next loop iteration
+   */
+  public ChatCluster batchDelay(long delay, TimeUnit unit) {
+    checkArgument(delay >= 0, "delay cannot be negative");
+    this.batchDelayNanos = unit.toNanos(delay);
+    return this;
+  }
+
+  /**
+   * how often rooms that lost their last local member are withdrawn
+   */
+  public ChatCluster sweep(long period, TimeUnit unit) {
+    checkArgument(period > 0, "period must be positive");
+    this.sweepMillis = unit.toMillis(period);
+    return this;
+  }
+
+  public ChatCluster metrics(MetricsRegistry registry) {
+    registry.counter("cluster_forwarded_total", "broadcasts queued on peer links", forwarded::sum);
+    registry.counter("cluster_delivered_total", "broadcasts received from peers", delivered::sum);
+    registry.gauge("cluster_links", "peer links connected", () -> links.stream().filter(Link::isConnected).count());
+    return this;
+  }
+
+  /**
+   * listens for peers on the port, dials every peer and starts bridging the
+   * service's rooms
+   */
+  public ChatCluster bind(int port) throws IOException {
+    checkState(!stopped, "cluster stopped");
+    // every dialing peer gets a loop of its own to deliver on
+    server.workers(links.size());
+    server.bind(port);
+    service.cluster(this);
+    links.forEach(Link::connect);
+    server.schedule(this::sweep, sweepMillis, TimeUnit.MILLISECONDS);
+    return this;
+  }
+
+  public void stop() {
+    stopped = true;
+    service.cluster(null);
+    links.forEach(Link::stop);
+    server.stop();
+  }
+
+  /**
+   * peers currently asking for the room's broadcasts
+   */
+  public int interested(String room) {
+    return (int) links.stream().filter(link -> link.wants(room)).count();
+  }
+
+  public long forwarded() {
+    return forwarded.sum();
+  }
+
+  public long delivered() {
+    return delivered.sum();
+  }
+
+  /**
+   * tells the peers about the room's first local member, called after the join
+   */
+  synchronized void joined(ChatRoom room) {
+    if (announced.add(room.name())) {
+      announce(message(JOIN).with("room", room.name()));
+    }
+  }
+
+  /**
+   * queues the broadcast once on every link whose node has members in the room
+   */
+  void forward(ChatRoom room, Message msg) {
+    Frame frame = null;
+    try {
+      for (Link link : links) {
+        if (!link.wants(room.name())) {
+          continue;
+        }
+        if (frame == null) {
+          frame = Frame.wrap(frame(room.name(), msg));
+        }
+        if (link.send(frame)) {
+          forwarded.increment();
+        }
+      }
+    } finally {
+      if (frame != null) {
+        frame.release();
+      }
+    }
+  }
+
+  /**
+   * withdraws the rooms whose last local member left since the last sweep
+   */
+  private synchronized void sweep() {
+    if (stopped) {
+      return;
+    }
+    List<String> empty = newArrayList();
+    for (String name : announced) {
+      ChatRoom room = service.chat().room(name);
+      if (room == null || room.users().isEmpty()) {
+        empty.add(name);
+      }
+    }
+    if (!empty.isEmpty()) {
+      announced.removeAll(empty);
+      announce(message(LEAVE).with("room", empty));
+    }
+    server.schedule(this::sweep, sweepMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * the length prefixed link frame of a broadcast, the message's own bytes when
+   * it still has them
+   */
+  static byte[] frame(String room, Message msg) {
+    byte[] name = room.getBytes(UTF_8);
+    checkArgument(name.length <= 0xFFFF, "room name too long");
+    ByteBuffer encoded = msg.encoded();
+    byte[] bytes = encoded == null ? MessageCodec.encode(msg) : null;
+    int length = 2 + name.length + (bytes == null ? encoded.remaining() : bytes.length);
+    ByteBuffer frame = ByteBuffer.allocate(LengthFieldDecoder.HEADER_SIZE + length);
+    frame.putInt(length).putShort((short) name.length).put(name);
+    if (bytes == null) {
+      frame.put(encoded);
+    } else {
+      frame.put(bytes);
+    }
+    return frame.array();
+  }
+
+  private void announce(Message msg) {
+    server.broadcast(WireFormat.FRAMED_BINARY.encode(newArrayList(msg)));
+  }
+
+  private void onPeerEvent(NetworkEvent evt) {
+    if (evt.type() == ACCEPT) {
+      inbound.put(evt.channel(), new LengthFieldDecoder(ChatTranslator.MAX_FRAME_SIZE));
+      // under the lock so no join or sweep slips between the copy and the broadcasts after it
+      synchronized (this) {
+        if (!announced.isEmpty()) {
+          server.send(evt.channel(), WireFormat.FRAMED_BINARY.encode(
+              newArrayList(message(JOIN).with("room", newArrayList(announced)))));
+        }
+      }
+    } else if (evt.type() == READ) {
+      LengthFieldDecoder decoder = inbound.get(evt.channel());
+      if (decoder == null) {
+        return;
+      }
+      try {
+        for (ByteBuffer frame : decoder.apply(evt.buffer())) {
+          deliver(frame);
+        }
+      } catch (RuntimeException e) {
+        logger.error("closing peer link sending undecodable data", e);
+        server.close(evt.channel());
+      }
+    } else if (evt.type() == DISCONNECT) {
+      inbound.remove(evt.channel());
+    }
+  }
+
+  /**
+   * the frame is a view of the read buffer, the message is copied out of it
+   * since room histories keep it
+   */
+  private void deliver(ByteBuffer frame) {
+    int length = frame.getShort() & 0xFFFF;
+    ByteBuffer name = frame.slice();
+    name.limit(length);
+    frame.position(frame.position() + name.remaining());
+    ChatRoom room = service.chat().room(MessageCodec.string(name));
+    if (room == null) {
+      return;
+    }
+    ByteBuffer bytes = ByteBuffer.allocate(frame.remaining());
+    bytes.put(frame).flip();
+    service.deliver(room, MessageCodec.wrap(bytes));
+    delivered.increment();
+  }
+
+  /**
+   * the connection this node dialed to one peer, redialed after it drops.
+   * the rooms the peer wants are only known while connected.
+   */
+  private final class Link {
+    final String host;
+    final int port;
+    final Set<String> rooms = Sets.newConcurrentHashSet();
+    volatile NetworkClient client;
+    volatile SocketChannel channel;
+
+    Link(String host, int port) {
+      this.host = host;
+      this.port = port;
+    }
+
+    boolean isConnected() {
+      return channel != null;
+    }
+
+    boolean wants(String room) {
+      return channel != null && rooms.contains(room);
+    }
+
+    boolean send(Frame frame) {
+      NetworkClient client = this.client;
+      SocketChannel channel = this.channel;
+      if (client == null || channel == null) {
+        return false;
+      }
+      client.send(channel, frame);
+      return true;
+    }
+
+    void connect() {
+      if (stopped) {
+        return;
+      }
+      BufferTranslator<List<Message>> translator = WireFormat.FRAMED_BINARY.translator();
+      NetworkClient client = new NetworkClient();
+      client.flushDelay(batchDelayNanos, TimeUnit.NANOSECONDS);
+      client.addListener(evt -> {
+        if (evt.type() == CONNECT) {
+          channel = evt.channel();
+          logger.info("linked to peer " + host + ":" + port);
+        } else if (evt.type() == READ) {
+          interest(translator.from(evt.buffer()));
+        } else if (evt.type() == DISCONNECT) {
+          dropped(client);
+        }
+      });
+      this.client = client;
+      try {
+        client.connect(host, port);
+      } catch (IOException | RuntimeException e) {
+        logger.error("Error dialing peer " + host + ":" + port, e);
+        dropped(client);
+      }
+    }
+
+    void stop() {
+      NetworkClient client = this.client;
+      if (client != null) {
+        client.stop();
+      }
+    }
+
+    private void interest(List<Message> msgs) {
+      for (Message msg : msgs) {
+        if (msg.type() == JOIN) {
+          rooms.addAll(msg.get("room"));
+        } else if (msg.type() == LEAVE) {
+          rooms.removeAll(msg.get("room"));
+        }
+      }
+    }
+
+    private void dropped(NetworkClient client) {
+      if (this.client != client) {
+        return;
+      }
+      channel = null;
+      rooms.clear();
+      client.stop();
+      if (!stopped) {
+        logger.info("peer " + host + ":" + port + " unreachable, redialing in " + RECONNECT_MILLIS + " ms");
+        server.schedule(this::connect, RECONNECT_MILLIS, TimeUnit.MILLISECONDS);
+      }
+    }
+  }
+}
@@ -0,0 +1,64 @@
+package chat.server;
+
+import chat.common.Message;
+import network.Translator;
+
+import java.nio.channels.SocketChannel;
+import java.util.List;
+
+/**
+ * what a command knows about the connection it runs for, created on ACCEPT
+ * together with the connection's codec and dropped on DISCONNECT
+ */
+public class ChatConnection {
+  private final ChatService service;
+  private final SocketChannel channel;
+  private final Translator<byte[], List<Message>> translator;
+
+  ChatConnection(ChatService service, SocketChannel channel, Translator<byte[], List<Message>> translator) {
+    this.service = service;
+    this.channel = channel;
+    this.translator = translator;
+  }
+
+  public SocketChannel channel() {
+    return channel;
+  }
+
+  public Chat chat() {
+    return service.chat();
+  }
+
+  public Translator<byte[], List<Message>> translator() {
+    return translator;
+  }
+
+  /**
+   * replies to this connection only
+   */
+  public void send(Message msg) {
+    service.send(channel, msg);
+  }
+
+  public void send(ChatRoom room, Message msg) {
+    service.send(room, msg);
+  }
+
+  /**
+   * sends to the room, keeps the message in its history and journals the record
+   */
+  public void publish(ChatRoom room, Message msg, Message record) {
+    service.publish(room, msg, record);
+  }
+
+  public void journal(Message record) {
+    service.journal(record);
+  }
+
+  /**
+   * joins the room, replaying its recent messages to this connection
+   */
+  public void join(ChatRoom room, String user) {
+    service.join(this, room, user);
+  }
+}
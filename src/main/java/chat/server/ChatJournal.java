@@ -0,0 +1,101 @@
+package chat.server;
+
+import chat.common.Message;
+import chat.common.MessageCodec;
+import journal.Journal;
+import journal.JournalReader;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+
+import static chat.common.Message.message;
+import static chat.common.MessageType.JOIN;
+import static chat.common.MessageType.LEAVE;
+import static chat.common.MessageType.MESSAGE;
+
+/**
+ * joins, leaves and room messages in a journal, binary encoded. a MESSAGE record
+ * holds the text as broadcast so history can be rebuilt without the commands
+ */
+public class ChatJournal implements Closeable {
+  private static final Logger logger = Logger.getLogger(ChatJournal.class);
+
+  private final Journal journal;
+
+  public ChatJournal(Journal journal) {
+    this.journal = journal;
+  }
+
+  public static Message joined(String room, String user) {
+    return message(JOIN).with("room", room).with("user", user);
+  }
+
+  public static Message left(String room, String user) {
+    return message(LEAVE).with("room", room).with("user", user);
+  }
+
+  public static Message said(String room, String user, Message broadcast) {
+    return message(MESSAGE, broadcast.corrId())
+        .with("room", room)
+        .with("user", user)
+        .with("message", broadcast.getFirst("message"));
+  }
+
+  /**
+   * returns the record's sequence, a failing journal is logged and returns -1
+   * so the command still goes through
+   */
+  public long record(Message record) {
+    try {
+      return journal.append(MessageCodec.encode(record));
+    } catch (IOException | RuntimeException e) {
+      logger.error("Error journaling " + record.type(), e);
+      return -1;
+    }
+  }
+
+  public Journal journal() {
+    return journal;
+  }
+
+  /**
+   * recreates the rooms seen in the journal and refills their history from the
+   * given sequence on, returns the sequence of the last record applied
+   */
+  public static long replay(Chat chat, JournalReader reader, long from) throws IOException {
+    return reader.read(from, (sequence, payload) -> apply(chat, sequence, MessageCodec.decode(payload)));
+  }
+
+  /**
+   * messages a room's history already holds from a snapshot are skipped
+   */
+  static void apply(Chat chat, long sequence, Message record) {
+    if (record.get("room") == null) {
+      return;
+    }
+    String name = record.getFirst("room");
+    ChatRoom room = chat.room(name);
+    if (room == null) {
+      room = new ChatRoom(name);
+      chat.room(room);
+    }
+    RoomHistory history = room.history();
+    if (record.type() == MESSAGE && history != null && sequence > history.sequence()) {
+      Message broadcast = message(MESSAGE, record.corrId()).with("message", record.getFirst("message"));
+      history.lock().lock();
+      try {
+        history.record(broadcast, Collections.emptyMap());
+        history.sequence(sequence);
+      } finally {
+        history.lock().unlock();
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    journal.close();
+  }
+}
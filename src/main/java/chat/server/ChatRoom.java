@@ -1,16 +1,23 @@
 package chat.server;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
+import network.Frame;
 import network.Network;
 
-import java.nio.channels.SocketChannel;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * membership is safe to change from any thread, joins and leaves lock only this room
+ * and readers share an immutable snapshot rebuilt lazily after the next change
+ */
 public class ChatRoom {
   private final String name;
-  private final Map<String, ChatUser> users = Maps.newHashMap();
+  private final Map<String, ChatUser> users = Maps.newConcurrentMap();
+  private volatile Snapshot snapshot = Snapshot.EMPTY;
+  private volatile RoomHistory history = new RoomHistory(64, 1024 * 1024, 0, TimeUnit.SECONDS);
 
   public ChatRoom(String name) {
     this.name = name;
@@ -20,23 +27,85 @@ public class ChatRoom {
     return name;
   }
 
-  public void send(Network network, byte[] bytes) {
-    users.values().stream().forEach(user -> user.send(network, bytes));
+  /**
+   * replaces the recent messages kept for joiners, null keeps none
+   */
+  public ChatRoom history(RoomHistory history) {
+    RoomHistory previous = this.history;
+    this.history = history;
+    if (previous != null) {
+      previous.clear();
+    }
+    return this;
   }
 
-  public void user(String user, SocketChannel channel) {
-    users.put(user, new ChatUser(channel, user, this));
+  public RoomHistory history() {
+    return history;
+  }
+
+  /**
+   * queues the same frame for every member, each queue holds its own view
+   */
+  public void send(Network network, Frame frame) {
+    for (ChatUser user : snapshot().users) {
+      user.send(network, frame);
+    }
+  }
+
+  /**
+   * joins the user, returns whoever held the name before or null
+   */
+  public synchronized ChatUser user(ChatUser user) {
+    ChatUser previous = users.put(user.name(), user);
+    snapshot = null;
+    return previous;
+  }
+
+  public ChatUser user(String name) {
+    return users.get(name);
   }
 
   public List<ChatUser> users() {
-    return users.values().stream().collect(Collectors.toList());
+    return snapshot().users;
   }
 
-  public ChatUser user(SocketChannel channel) {
-    return users.values().stream().filter(user -> user.has(channel)).findFirst().orElse(null);
+  public List<String> names() {
+    return snapshot().names;
   }
 
-  public ChatUser remove(ChatUser user) {
-    return users.remove(user.name());
+  /**
+   * removes the user unless the name was taken over by another connection meanwhile
+   */
+  public synchronized boolean remove(ChatUser user) {
+    boolean removed = users.remove(user.name(), user);
+    if (removed) {
+      snapshot = null;
+    }
+    return removed;
+  }
+
+  private Snapshot snapshot() {
+    Snapshot current = snapshot;
+    if (current != null) {
+      return current;
+    }
+    synchronized (this) {
+      if (snapshot == null) {
+        snapshot = new Snapshot(ImmutableList.copyOf(users.values()));
+      }
+      return snapshot;
+    }
+  }
+
+  private static final class Snapshot {
+    static final Snapshot EMPTY = new Snapshot(ImmutableList.of());
+
+    final ImmutableList<ChatUser> users;
+    final ImmutableList<String> names;
+
+    Snapshot(ImmutableList<ChatUser> users) {
+      this.users = users;
+      this.names = users.stream().map(ChatUser::name).collect(ImmutableList.toImmutableList());
+    }
   }
 }
@@ -1,65 +1,283 @@
 package chat.server;
 
 import chat.common.Message;
+import chat.common.MessageType;
+import com.google.common.collect.Maps;
+import metrics.LatencyHistogram;
+import metrics.MetricsRegistry;
+import network.BufferTranslator;
+import network.Frame;
 import network.Network;
 import network.NetworkEvent;
 import network.NetworkListener;
 import network.Translator;
+import org.apache.log4j.Logger;
 
 import java.nio.channels.SocketChannel;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
 
 import static chat.common.MessageType.*;
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.collect.Lists.newArrayList;
+import static network.NetworkEventType.ACCEPT;
 import static network.NetworkEventType.DISCONNECT;
+import static network.NetworkEventType.IDLE;
 import static network.NetworkEventType.READ;
 
 public class ChatService implements NetworkListener {
+  private static final Logger logger = Logger.getLogger(ChatService.class);
+
   private final Network network;
   private final Chat chat;
-  private final Translator<byte[], List<Message>> translator;
+  private final Supplier<? extends Translator<byte[], List<Message>>> translators;
+  // context per connection, created on ACCEPT and freed on DISCONNECT
+  private final Map<SocketChannel, ChatConnection> connections = Maps.newConcurrentMap();
+  private final Map<MessageType, Command> commands = new EnumMap<>(MessageType.class);
+  private volatile ChatJournal journal;
+  private volatile ChatCluster cluster;
+  private volatile Map<MessageType, LatencyHistogram> timings;
 
-  public ChatService(Network network, Chat chat, Translator translator) {
+  /**
+   * every connection gets its own translator from the supplier, decoders keep partial
+   * frames between reads so a translator must never be shared between connections
+   */
+  public ChatService(Network network, Chat chat, Supplier<? extends Translator<byte[], List<Message>>> translators) {
     this.network = network;
     this.chat = chat;
-    this.translator = translator;
+    this.translators = translators;
+    handle(GET_ROOMS, new GetRoomsCommand());
+    handle(GET_ROOM_USERS, new GetUsersCommand());
+    handle(JOIN, new JoinRoomCommand());
+    handle(MESSAGE, new SendMessageCommand());
+    handle(LEAVE, new LeaveRoomCommand());
+    handle(PING, new PingCommand());
+    // the read itself is what keeps a connection from timing out
+    handle(PONG, (connection, msg) -> { });
+  }
+
+  /**
+   * registers or replaces the command for a message type, meant to be called
+   * before the service starts receiving events
+   */
+  public ChatService handle(MessageType type, Command command) {
+    checkArgument(type != null, "type cannot be null");
+    checkArgument(command != null, "command cannot be null");
+    commands.put(type, command);
+    return this;
+  }
+
+  /**
+   * records joins, leaves and room messages from now on
+   */
+  public ChatService journal(ChatJournal journal) {
+    this.journal = journal;
+    return this;
+  }
+
+  /**
+   * times every command, one histogram per message type
+   */
+  public ChatService metrics(MetricsRegistry registry) {
+    Map<MessageType, LatencyHistogram> timings = new EnumMap<>(MessageType.class);
+    for (MessageType type : MessageType.values()) {
+      timings.put(type, registry.histogram("chat_command_seconds", "command execution time", "type", type.name()));
+    }
+    this.timings = timings;
+    return this;
+  }
+
+  /**
+   * set by the cluster while it bridges this service's rooms
+   */
+  void cluster(ChatCluster cluster) {
+    this.cluster = cluster;
+  }
+
+  Chat chat() {
+    return chat;
+  }
+
+  /**
+   * returns the record's journal sequence, or -1 when it was not journaled
+   */
+  long journal(Message record) {
+    ChatJournal journal = this.journal;
+    return journal == null ? -1 : journal.record(record);
   }
 
   @Override
   public void onEvent(NetworkEvent evt) {
-    List<Message> msgs = null;
-    if (evt.type() == DISCONNECT) {
-      msgs = newArrayList(new Message(LEAVE));
+    if (evt.type() == ACCEPT) {
+      connection(evt.channel());
     } else if (evt.type() == READ) {
-      msgs = translator.from(evt.getData());
+      ChatConnection connection = connection(evt.channel());
+      List<Message> msgs;
+      try {
+        msgs = decode(connection.translator(), evt);
+      } catch (RuntimeException e) {
+        logger.error("closing connection sending undecodable data", e);
+        network.close(evt.channel());
+        return;
+      }
+      for (int i = 0; i < msgs.size(); i++) {
+        execute(connection, msgs.get(i));
+      }
+    } else if (evt.type() == IDLE) {
+      // a live peer answers and resets the network's idle timeout
+      send(evt.channel(), new Message(PING));
+    } else if (evt.type() == DISCONNECT) {
+      ChatConnection connection = connections.get(evt.channel());
+      if (connection != null) {
+        execute(connection, new Message(LEAVE));
+        connections.remove(evt.channel());
+      }
     }
+  }
 
-    if (msgs != null) {
-      msgs.stream().forEach(msg -> cmd(evt.channel(), msg).execute(chat, msg));
+  private void execute(ChatConnection connection, Message msg) {
+    Command command = msg.type() == null ? null : commands.get(msg.type());
+    if (command == null) {
+      logger.warn("no command for message type " + msg.type());
+      return;
+    }
+    Map<MessageType, LatencyHistogram> timings = this.timings;
+    if (timings == null) {
+      command.execute(connection, msg);
+      return;
+    }
+    long start = System.nanoTime();
+    try {
+      command.execute(connection, msg);
+    } finally {
+      timings.get(msg.type()).recordSince(start);
     }
   }
 
-  Command cmd(SocketChannel channel, Message msg) {
-    if (msg.type() == GET_ROOMS) {
-      return new GetRoomsCommand(this, channel);
-    } else if (msg.type() == GET_ROOM_USERS) {
-      return new GetUsersCommand(this, channel);
-    } else if (msg.type() == JOIN) {
-      return new JoinRoomCommand(this, channel);
-    } else if (msg.type() == MESSAGE) {
-      return new SendMessageCommand(this, channel);
-    } else if (msg.type() == LEAVE) {
-      return new LeaveRoomCommand(this, channel);
+  void send(ChatRoom room, Message msg) {
+    send(room, msg, null);
+  }
+
+  /**
+   * sends to the room and keeps the message for later joiners, journaled in
+   * the same order the room's members see it
+   */
+  void publish(ChatRoom room, Message msg, Message record) {
+    RoomHistory history = room.history();
+    if (history == null) {
+      send(room, msg, null);
+      journal(record);
+      return;
+    }
+    history.lock().lock();
+    try {
+      send(room, msg, history);
+      long sequence = journal(record);
+      if (sequence > 0) {
+        history.sequence(sequence);
+      }
+    } finally {
+      history.lock().unlock();
     }
-    return null;
   }
 
-  void send(ChatRoom room, Message msg) {
-    chat.send(network, room, translator.to(newArrayList(msg)));
+  /**
+   * joins the room and replays its history to the joiner before anyone else
+   * can publish, so no message is missed or seen twice
+   */
+  void join(ChatConnection connection, ChatRoom room, String user) {
+    RoomHistory history = room.history();
+    if (history == null) {
+      chat.join(connection.channel(), room.name(), user);
+    } else {
+      Translator<byte[], List<Message>> translator = connection.translator();
+      history.lock().lock();
+      try {
+        chat.join(connection.channel(), room.name(), user);
+        List<Frame> frames = history.replay(translator.encoding(), msg -> Frame.wrap(translator.to(newArrayList(msg))));
+        // queued back to back, the gathering write sends them together
+        for (Frame frame : frames) {
+          network.send(connection.channel(), frame);
+        }
+      } finally {
+        history.lock().unlock();
+      }
+    }
+    ChatCluster cluster = this.cluster;
+    if (cluster != null) {
+      cluster.joined(room);
+    }
+  }
+
+  /**
+   * a broadcast forwarded by another node, sent to the local members and kept
+   * for later joiners but neither journaled nor forwarded again
+   */
+  void deliver(ChatRoom room, Message msg) {
+    RoomHistory history = room.history();
+    if (history == null) {
+      broadcast(room, msg, null);
+      return;
+    }
+    history.lock().lock();
+    try {
+      broadcast(room, msg, history);
+    } finally {
+      history.lock().unlock();
+    }
+  }
+
+  private void send(ChatRoom room, Message msg, RoomHistory history) {
+    broadcast(room, msg, history);
+    ChatCluster cluster = this.cluster;
+    if (cluster != null) {
+      cluster.forward(room, msg);
+    }
+  }
+
+  private void broadcast(ChatRoom room, Message msg, RoomHistory history) {
+    // encode once per wire format, members of a format queue views of one frame
+    List<Message> msgs = newArrayList(msg);
+    Map<Object, Frame> frames = Maps.newHashMap();
+    try {
+      for (ChatUser user : room.users()) {
+        ChatConnection connection = connections.get(user.channel());
+        if (connection == null) {
+          continue; // disconnected, still leaving the room
+        }
+        Translator<byte[], List<Message>> translator = connection.translator();
+        Frame frame = frames.computeIfAbsent(translator.encoding(), encoding -> Frame.wrap(translator.to(msgs)));
+        user.send(network, frame);
+      }
+      if (history != null) {
+        history.record(msg, frames);
+      }
+    } finally {
+      frames.values().forEach(Frame::release);
+    }
   }
 
   void send(SocketChannel channel, Message msg) {
-    network.send(channel, translator.to(newArrayList(msg)));
+    ChatConnection connection = connections.get(channel);
+    if (connection != null) {
+      network.send(channel, connection.translator().to(newArrayList(msg)));
+    }
   }
-}
 
+  /**
+   * decodes in place from the read buffer when the translator can
+   */
+  private static List<Message> decode(Translator<byte[], List<Message>> translator, NetworkEvent evt) {
+    if (translator instanceof BufferTranslator) {
+      return ((BufferTranslator<List<Message>>) translator).from(evt.buffer());
+    }
+    return translator.from(evt.getData());
+  }
+
+  private ChatConnection connection(SocketChannel channel) {
+    // channels accepted before this listener was added never saw their ACCEPT
+    return connections.computeIfAbsent(channel, key -> new ChatConnection(this, key, translators.get()));
+  }
+}
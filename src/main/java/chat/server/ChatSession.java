@@ -0,0 +1,51 @@
+package chat.server;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * rooms and identities one connection has joined, keyed by room name
+ *
+ * mostly touched by the connection's own thread, but a name taken over from
+ * another connection is forgotten from that thread
+ */
+public class ChatSession {
+  private final SocketChannel channel;
+  private final Map<String, ChatUser> users = Maps.newLinkedHashMap();
+
+  public ChatSession(SocketChannel channel) {
+    this.channel = channel;
+  }
+
+  public SocketChannel channel() {
+    return channel;
+  }
+
+  public synchronized ChatUser user(String room) {
+    return users.get(room);
+  }
+
+  public synchronized List<ChatUser> users() {
+    return Lists.newArrayList(users.values());
+  }
+
+  public synchronized List<String> rooms() {
+    return Lists.newArrayList(users.keySet());
+  }
+
+  public synchronized boolean isEmpty() {
+    return users.isEmpty();
+  }
+
+  synchronized void joined(ChatUser user) {
+    users.put(user.room().name(), user);
+  }
+
+  synchronized boolean left(ChatUser user) {
+    return users.remove(user.room().name(), user);
+  }
+}
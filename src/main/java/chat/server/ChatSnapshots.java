@@ -0,0 +1,190 @@
+package chat.server;
+
+import chat.common.Message;
+import chat.common.MessageCodec;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import journal.Journal;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * compact binary images of the chat rooms and their history tails, written next
+ * to the journal from a background thread. a snapshot names the journal sequence
+ * it covers so startup only replays the records after it.
+ *
+ * every room is copied under its own history lock and keeps the sequence of its
+ * last message, records the copy already holds are skipped on replay. memberships
+ * are not kept, connections do not survive a restart.
+ */
+public class ChatSnapshots {
+  private static final Logger logger = Logger.getLogger(ChatSnapshots.class);
+  private static final int MAGIC = 0x43484154;
+  private static final int VERSION = 1;
+  private static final String PREFIX = "snapshot-";
+  private static final String SUFFIX = ".bin";
+
+  private final Path dir;
+  private int retain = 2;
+  private ScheduledExecutorService scheduler;
+
+  public ChatSnapshots(Path dir) {
+    checkArgument(dir != null, "dir cannot be null");
+    this.dir = dir;
+  }
+
+  /**
+   * snapshots kept on disk, older ones are deleted after each write
+   */
+  public ChatSnapshots retain(int snapshots) {
+    checkArgument(snapshots > 0, "snapshots must be positive");
+    this.retain = snapshots;
+    return this;
+  }
+
+  /**
+   * snapshots the chat at a fixed delay on a daemon thread
+   */
+  public ChatSnapshots start(Chat chat, Journal journal, long period, TimeUnit unit) {
+    checkArgument(period > 0, "period must be positive");
+    scheduler = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("chat-snapshot").setDaemon(true).build());
+    scheduler.scheduleWithFixedDelay(() -> {
+      try {
+        write(chat, journal.nextSequence() - 1);
+      } catch (IOException | RuntimeException e) {
+        logger.error("Error writing snapshot", e);
+      }
+    }, period, period, unit);
+    return this;
+  }
+
+  public void stop() {
+    if (scheduler != null) {
+      scheduler.shutdown();
+    }
+  }
+
+  /**
+   * writes a snapshot covering the journal up to the given sequence, which must
+   * be read before the rooms are copied
+   */
+  public Path write(Chat chat, long sequence) throws IOException {
+    long start = System.nanoTime();
+    Files.createDirectories(dir);
+    Path target = dir.resolve(String.format("%s%020d%s", PREFIX, sequence, SUFFIX));
+    Path temp = dir.resolve(target.getFileName() + ".tmp");
+
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(sequence);
+      List<ChatRoom> rooms = chat.rooms();
+      out.writeInt(rooms.size());
+      for (ChatRoom room : rooms) {
+        out.writeUTF(room.name());
+        RoomHistory history = room.history();
+        if (history == null) {
+          out.writeLong(0);
+          out.writeInt(0);
+          continue;
+        }
+        List<Message> messages;
+        long roomSequence;
+        history.lock().lock();
+        try {
+          messages = history.messages();
+          roomSequence = history.sequence();
+        } finally {
+          history.lock().unlock();
+        }
+        out.writeLong(roomSequence);
+        out.writeInt(messages.size());
+        for (Message msg : messages) {
+          byte[] bytes = MessageCodec.encode(msg);
+          out.writeInt(bytes.length);
+          out.write(bytes);
+        }
+      }
+    }
+    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+    List<Path> snapshots = snapshots();
+    for (int i = 0; i < snapshots.size() - retain; i++) {
+      Files.deleteIfExists(snapshots.get(i));
+    }
+    logger.info(String.format("snapshot at sequence %d written in %.1f ms",
+        sequence, (System.nanoTime() - start) / 1e6));
+    return target;
+  }
+
+  /**
+   * loads the newest snapshot into the chat, creating missing rooms, and returns
+   * the journal sequence it covers or 0 when there is none
+   */
+  public long load(Chat chat) throws IOException {
+    List<Path> snapshots = snapshots();
+    if (snapshots.isEmpty()) {
+      return 0;
+    }
+    Path latest = snapshots.get(snapshots.size() - 1);
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(latest)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException("not a chat snapshot: " + latest);
+      }
+      long sequence = in.readLong();
+      int rooms = in.readInt();
+      for (int i = 0; i < rooms; i++) {
+        String name = in.readUTF();
+        ChatRoom room = chat.room(name);
+        if (room == null) {
+          room = new ChatRoom(name);
+          chat.room(room);
+        }
+        long roomSequence = in.readLong();
+        int count = in.readInt();
+        RoomHistory history = room.history();
+        for (int j = 0; j < count; j++) {
+          byte[] bytes = new byte[in.readInt()];
+          in.readFully(bytes);
+          if (history != null) {
+            history.record(MessageCodec.decode(ByteBuffer.wrap(bytes)), Collections.emptyMap());
+          }
+        }
+        if (history != null) {
+          history.sequence(roomSequence);
+        }
+      }
+      return sequence;
+    }
+  }
+
+  private List<Path> snapshots() throws IOException {
+    if (!Files.isDirectory(dir)) {
+      return Collections.emptyList();
+    }
+    try (Stream<Path> files = Files.list(dir)) {
+      return files.filter(path -> {
+        String name = path.getFileName().toString();
+        return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+      }).sorted().collect(Collectors.toList());
+    }
+  }
+}
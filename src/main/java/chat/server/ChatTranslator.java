@@ -1,19 +1,26 @@
 package chat.server;
 
 import chat.common.Message;
+import chat.common.MessageCodec;
+import network.LengthFieldDecoder;
+import network.BufferTranslator;
+import network.LengthFieldEncoder;
 import network.StringDecoder;
 import network.StringEncoder;
-import network.Translator;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.function.Function;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.stream.Collectors.toList;
 
 /**
  * Created by Rafael on 1/24/2017.
  */
-public class ChatTranslator implements Translator<byte[], List<Message>> {
+public class ChatTranslator implements BufferTranslator<List<Message>> {
+  public static final int MAX_FRAME_SIZE = 1024 * 1024;
+
   public static ChatTranslator translator() {
     // from bytes to messages
     Function<List<String>, List<Message>> strToMsg = strs -> strs.stream().map(Message::from).collect(toList());
@@ -26,11 +33,68 @@ public class ChatTranslator implements Translator<byte[], List<Message>> {
     return new ChatTranslator(from, to);
   }
 
+  /**
+   * json messages in length prefixed frames
+   */
+  public static ChatTranslator framed() {
+    // from bytes to messages, the text is decoded straight from the frames
+    LengthFieldDecoder decoder = new LengthFieldDecoder(MAX_FRAME_SIZE);
+    Function<ByteBuffer, List<Message>> fromBuffer = bytes -> decoder.apply(bytes)
+        .stream()
+        .map(frame -> Message.from(UTF_8.decode(frame).toString()))
+        .collect(toList());
+    Function<byte[], List<Message>> from = fromBuffer.compose(ByteBuffer::wrap);
+
+    // from messages to bytes
+    Function<List<Message>, List<byte[]>> msgToBytes = msgs -> msgs.stream()
+        .map(msg -> msg.json().getBytes(UTF_8))
+        .collect(toList());
+    Function<List<Message>, byte[]> to = new LengthFieldEncoder().compose(msgToBytes);
+
+    return new ChatTranslator(from, fromBuffer, to);
+  }
+
+  /**
+   * binary encoded messages in length prefixed frames, decoded lazily so a
+   * message can be forwarded without touching its attributes
+   */
+  public static ChatTranslator binary() {
+    // from bytes to messages, frames of a byte[] are wrapped as they are while
+    // frames of a read buffer are copied out, the messages outlive the buffer
+    LengthFieldDecoder decoder = new LengthFieldDecoder(MAX_FRAME_SIZE);
+    Function<byte[], List<Message>> from = bytes -> decoder.apply(ByteBuffer.wrap(bytes))
+        .stream()
+        .map(MessageCodec::wrap)
+        .collect(toList());
+    Function<ByteBuffer, List<Message>> fromBuffer = bytes -> decoder.apply(bytes)
+        .stream()
+        .map(frame -> MessageCodec.wrap((ByteBuffer) ByteBuffer.allocate(frame.remaining()).put(frame).flip()))
+        .collect(toList());
+
+    // from messages to bytes
+    Function<List<Message>, List<byte[]>> msgToBytes = msgs -> msgs.stream()
+        .map(Message::binary)
+        .collect(toList());
+    Function<List<Message>, byte[]> to = new LengthFieldEncoder().compose(msgToBytes);
+
+    return new ChatTranslator(from, fromBuffer, to);
+  }
+
   private final Function<byte[], List<Message>> from;
+  private final Function<ByteBuffer, List<Message>> fromBuffer;
   private final Function<List<Message>, byte[]> to;
 
   public ChatTranslator(Function<byte[], List<Message>> from, Function<List<Message>, byte[]> to) {
+    this(from, null, to);
+  }
+
+  /**
+   * a null buffer decoder copies read buffers into a byte[] for the other one
+   */
+  public ChatTranslator(Function<byte[], List<Message>> from, Function<ByteBuffer, List<Message>> fromBuffer,
+                        Function<List<Message>, byte[]> to) {
     this.from = from;
+    this.fromBuffer = fromBuffer;
     this.to = to;
   }
 
@@ -39,6 +103,11 @@ public class ChatTranslator implements Translator<byte[], List<Message>> {
     return from.apply(bytes);
   }
 
+  @Override
+  public List<Message> from(ByteBuffer bytes) {
+    return fromBuffer == null ? BufferTranslator.super.from(bytes) : fromBuffer.apply(bytes);
+  }
+
   @Override
   public byte[] to(List<Message> msgs) {
     return to.apply(msgs);
@@ -1,5 +1,6 @@
 package chat.server;
 
+import network.Frame;
 import network.Network;
 
 import java.nio.channels.SocketChannel;
@@ -19,8 +20,16 @@ public class ChatUser {
     return name;
   }
 
-  public void send(Network network, byte[] bytes) {
-    network.send(channel, bytes);
+  public SocketChannel channel() {
+    return channel;
+  }
+
+  public ChatRoom room() {
+    return room;
+  }
+
+  public void send(Network network, Frame frame) {
+    network.send(channel, frame);
   }
 
   public boolean has(SocketChannel channel) {
@@ -4,7 +4,10 @@ import chat.common.Message;
 
 /**
  * Created by Rafael on 1/24/2017.
+ *
+ * handles one message type, commands are shared by every connection so they
+ * keep no state of their own
  */
-interface Command {
-  void execute(Chat chat, Message message);
+public interface Command {
+  void execute(ChatConnection connection, Message message);
 }
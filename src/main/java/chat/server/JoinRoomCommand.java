@@ -3,8 +3,6 @@ package chat.server;
 import chat.common.Message;
 import org.apache.log4j.Logger;
 
-import java.nio.channels.SocketChannel;
-
 import static chat.common.Message.message;
 
 /**
@@ -12,20 +10,14 @@ import static chat.common.Message.message;
  */
 class JoinRoomCommand implements Command {
   private static final Logger logger = Logger.getLogger(JoinRoomCommand.class);
-  private final ChatService server;
-  private final SocketChannel channel;
-
-  public JoinRoomCommand(ChatService server, SocketChannel channel) {
-    this.server = server;
-    this.channel = channel;
-  }
 
   @Override
-  public void execute(Chat chat, Message msg) {
-    String room = msg.get("room").get(0);
+  public void execute(ChatConnection connection, Message msg) {
+    ChatRoom room = connection.chat().room(msg.get("room").get(0));
     String user = msg.get("user").get(0);
-    chat.join(channel, room, user);
+    connection.join(room, user);
+    connection.journal(ChatJournal.joined(room.name(), user));
     String str = String.format("%s has joined the chat", user);
-    server.send(chat.room(room), message(msg.type(), msg.corrId()).with("message", str));
+    connection.send(room, message(msg.type(), msg.corrId()).with("message", str));
   }
 }
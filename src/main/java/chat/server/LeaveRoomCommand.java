@@ -3,26 +3,32 @@ package chat.server;
 import chat.common.Message;
 
 import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Objects;
 
 import static chat.common.Message.message;
+import static com.google.common.collect.Lists.newArrayList;
 
 /**
  * Created by Rafael on 1/24/2017.
  */
 class LeaveRoomCommand implements Command {
-  private final ChatService server;
-  private final SocketChannel channel;
-
-  public LeaveRoomCommand(ChatService server, SocketChannel channel) {
-    this.server = server;
-    this.channel = channel;
-  }
-
+  /**
+   * leaves the room named in the message, or every joined room when it names none
+   */
   @Override
-  public void execute(Chat chat, Message msg) {
-    ChatUser user = chat.user(channel);
-    ChatRoom room = user.leave();
-    String str = user.name() + " left the room";
-    server.send(room, message(msg.type(), msg.corrId()).with("message", str));
+  public void execute(ChatConnection connection, Message msg) {
+    Chat chat = connection.chat();
+    SocketChannel channel = connection.channel();
+    List<String> rooms = msg.get("room");
+    List<ChatUser> users = rooms == null ? chat.leave(channel) : newArrayList();
+    if (rooms != null) {
+      rooms.stream().map(room -> chat.leave(channel, room)).filter(Objects::nonNull).forEach(users::add);
+    }
+    for (ChatUser user : users) {
+      connection.journal(ChatJournal.left(user.room().name(), user.name()));
+      String str = user.name() + " left the room";
+      connection.send(user.room(), message(msg.type(), msg.corrId()).with("message", str));
+    }
   }
 }
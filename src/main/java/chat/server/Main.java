@@ -1,8 +1,23 @@
 package chat.server;
 
+import com.google.common.base.Splitter;
+import com.google.common.net.HostAndPort;
+import journal.Journal;
+import journal.JournalReader;
+import metrics.MetricsMBean;
+import metrics.MetricsRegistry;
+import metrics.MetricsServer;
+import network.BlockingNetworkServer;
+import network.ExecutionStage;
 import network.NetworkServer;
 import org.apache.log4j.Logger;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
 public class Main {
   private static final Logger logger = Logger.getLogger(Main.class);
 
@@ -13,9 +28,67 @@ public class Main {
         new ChatRoom("C++ Programming"),
         new ChatRoom("Python Programming"));
 
+    // latest snapshot first, then only the journal records after it
+    long start = System.nanoTime();
+    Path dir = Paths.get(System.getProperty("chat.journal", "journal"));
+    ChatSnapshots snapshots = new ChatSnapshots(dir);
+    long snapshot = snapshots.load(chat);
+    long last = ChatJournal.replay(chat, new JournalReader(dir), snapshot + 1);
+    logger.info(String.format("recovered snapshot %d and journal up to %d in %.1f ms",
+        snapshot, last, (System.nanoTime() - start) / 1e6));
+
+    ChatJournal journal = new ChatJournal(new Journal(dir).retain(16).open());
+    snapshots.start(chat, journal.journal(), 1, TimeUnit.MINUTES);
+
+    // scraped from localhost, the same values are browsable over jmx
+    MetricsRegistry metrics = new MetricsRegistry();
+    MetricsMBean.register(metrics, "chat:type=Metrics");
+    new MetricsServer(metrics, new InetSocketAddress("localhost", Integer.getInteger("chat.metrics.port", 9100))).start();
+    int port = Integer.getInteger("chat.port", 9999);
+
+    // --blocking: a thread per connection. broadcasts write to each member in turn
+    // under the room's lock, a member not reading stalls the room until the write
+    // timeout closes it. chat.idle.timeout.seconds does not apply.
+    if (args.length > 0 && args[0].equals("--blocking")) {
+      logger.info("creating thread per connection chat server");
+      BlockingNetworkServer server = new BlockingNetworkServer();
+      server.writeTimeout(Long.getLong("chat.write.timeout.seconds", 10), TimeUnit.SECONDS);
+      server.metrics(metrics);
+      ChatService service = new ChatService(server, chat, NegotiatingTranslator::new).journal(journal).metrics(metrics);
+      server.addListener(service);
+      server.bind(port);
+      cluster(service, metrics);
+      return;
+    }
+
     logger.info("creating chat server");
-    NetworkServer server = new NetworkServer();
-    server.addListener(new ChatService(server, chat, ChatTranslator.translator()));
-    server.bind(9999);
+    int cores = Runtime.getRuntime().availableProcessors();
+    NetworkServer server = new NetworkServer().workers(cores);
+    // trades a little latency for fewer, larger writes under bursts
+    server.flushDelay(Long.getLong("chat.flush.delay.micros", 0), TimeUnit.MICROSECONDS);
+    // idle connections are pinged after half the timeout and dropped after all of it
+    server.idleTimeout(Long.getLong("chat.idle.timeout.seconds", 60), TimeUnit.SECONDS);
+    server.metrics(metrics);
+    ChatService service = new ChatService(server, chat, NegotiatingTranslator::new).journal(journal).metrics(metrics);
+    server.addListener(new ExecutionStage(service, cores, 4096).metrics(metrics));
+    server.bind(port);
+    cluster(service, metrics);
+  }
+
+  /**
+   * joins the nodes listed in chat.cluster.peers as host:port pairs when a
+   * chat.cluster.port is set, every node lists all the others
+   */
+  private static void cluster(ChatService service, MetricsRegistry metrics) throws IOException {
+    Integer port = Integer.getInteger("chat.cluster.port");
+    if (port == null) {
+      return;
+    }
+    ChatCluster cluster = new ChatCluster(service).metrics(metrics);
+    for (String peer : Splitter.on(',').trimResults().omitEmptyStrings().split(System.getProperty("chat.cluster.peers", ""))) {
+      HostAndPort address = HostAndPort.fromString(peer);
+      cluster.peer(address.getHost(), address.getPort());
+    }
+    cluster.bind(port);
   }
 }
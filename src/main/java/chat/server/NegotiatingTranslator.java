@@ -0,0 +1,68 @@
+package chat.server;
+
+import chat.common.Message;
+import network.BufferTranslator;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * translator of a single connection that picks the wire format from the first
+ * byte received, replies are json lines until the format is known
+ */
+public class NegotiatingTranslator implements BufferTranslator<List<Message>> {
+  private volatile WireFormat format;
+  private BufferTranslator<List<Message>> delegate;
+
+  @Override
+  public List<Message> from(byte[] bytes) {
+    if (delegate == null) {
+      if (bytes.length == 0) {
+        return Collections.emptyList();
+      }
+      WireFormat negotiated = WireFormat.negotiate(bytes[0]);
+      if (negotiated.preamble() != null) {
+        bytes = Arrays.copyOfRange(bytes, 1, bytes.length);
+      }
+      delegate = negotiated.translator();
+      format = negotiated;
+    }
+    return delegate.from(bytes);
+  }
+
+  /**
+   * decodes in place, the preamble is skipped rather than copied away
+   */
+  @Override
+  public List<Message> from(ByteBuffer bytes) {
+    if (delegate == null) {
+      if (!bytes.hasRemaining()) {
+        return Collections.emptyList();
+      }
+      WireFormat negotiated = WireFormat.negotiate(bytes.get(bytes.position()));
+      if (negotiated.preamble() != null) {
+        bytes.position(bytes.position() + 1);
+      }
+      delegate = negotiated.translator();
+      format = negotiated;
+    }
+    return delegate.from(bytes);
+  }
+
+  @Override
+  public byte[] to(List<Message> msgs) {
+    return format().encode(msgs);
+  }
+
+  @Override
+  public Object encoding() {
+    return format();
+  }
+
+  public WireFormat format() {
+    WireFormat current = format;
+    return current == null ? WireFormat.JSON_LINES : current;
+  }
+}
@@ -0,0 +1,16 @@
+package chat.server;
+
+import chat.common.Message;
+
+import static chat.common.Message.message;
+import static chat.common.MessageType.PONG;
+
+/**
+ * answers a peer checking that the server is still there
+ */
+class PingCommand implements Command {
+  @Override
+  public void execute(ChatConnection connection, Message req) {
+    connection.send(message(PONG, req.corrId()));
+  }
+}
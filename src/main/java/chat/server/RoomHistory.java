@@ -0,0 +1,174 @@
+package chat.server;
+
+import chat.common.Message;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import network.Frame;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * ring of the last messages sent to a room, kept as the frames already encoded
+ * for the broadcast, one per wire format, so replaying to a joiner encodes nothing.
+ *
+ * bounded by message count and bytes, older messages are evicted first. callers
+ * hold lock() around a broadcast and its record, and around a join and its replay,
+ * so a joiner sees every message exactly once.
+ */
+public class RoomHistory {
+  private final Slot[] slots;
+  private final long maxBytes;
+  private final long maxAgeMillis;
+  private final Lock lock = new ReentrantLock();
+  private int head;
+  private int size;
+  private long bytes;
+  private long sequence;
+
+  /**
+   * max age of zero keeps messages until they are pushed out
+   */
+  public RoomHistory(int capacity, long maxBytes, long maxAge, TimeUnit unit) {
+    checkArgument(capacity > 0, "capacity must be positive");
+    checkArgument(maxBytes > 0, "maxBytes must be positive");
+    checkArgument(maxAge >= 0, "maxAge cannot be negative");
+    this.slots = new Slot[capacity];
+    for (int i = 0; i < capacity; i++) {
+      slots[i] = new Slot();
+    }
+    this.maxBytes = maxBytes;
+    this.maxAgeMillis = unit.toMillis(maxAge);
+  }
+
+  public Lock lock() {
+    return lock;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public long bytes() {
+    return bytes;
+  }
+
+  /**
+   * journal sequence of the last message recorded, snapshots use it to tell
+   * which journal records the history already holds
+   */
+  public long sequence() {
+    return sequence;
+  }
+
+  void sequence(long sequence) {
+    this.sequence = sequence;
+  }
+
+  /**
+   * the retained messages, oldest first, caller holds the lock
+   */
+  List<Message> messages() {
+    List<Message> messages = Lists.newArrayListWithCapacity(size);
+    for (int i = 0; i < size; i++) {
+      messages.add(slots[(tail() + i) % slots.length].message);
+    }
+    return messages;
+  }
+
+  /**
+   * keeps a reference to each frame of the broadcast
+   */
+  void record(Message msg, Map<Object, Frame> frames) {
+    if (size == slots.length) {
+      evictOldest();
+    }
+    Slot slot = slots[head];
+    slot.time = System.currentTimeMillis();
+    slot.message = msg;
+    for (Map.Entry<Object, Frame> frame : frames.entrySet()) {
+      slot.frames.put(frame.getKey(), frame.getValue().retain());
+      slot.bytes += frame.getValue().size();
+    }
+    bytes += slot.bytes;
+    head = (head + 1) % slots.length;
+    size++;
+
+    while (bytes > maxBytes && size > 1) {
+      evictOldest();
+    }
+  }
+
+  /**
+   * frames of the retained messages in the given encoding, oldest first. messages
+   * broadcast before anyone used that encoding are encoded once and kept, the
+   * oldest are evicted and left out when that takes the history past its bytes.
+   * the frames stay owned by the history, send them before releasing the lock.
+   */
+  List<Frame> replay(Object encoding, Function<Message, Frame> encoder) {
+    if (maxAgeMillis > 0) {
+      long oldest = System.currentTimeMillis() - maxAgeMillis;
+      while (size > 0 && slots[tail()].time < oldest) {
+        evictOldest();
+      }
+    }
+
+    List<Frame> frames = Lists.newArrayListWithCapacity(size);
+    for (int i = 0; i < size; i++) {
+      Slot slot = slots[(tail() + i) % slots.length];
+      Frame frame = slot.frames.get(encoding);
+      if (frame == null) {
+        frame = encoder.apply(slot.message);
+        slot.frames.put(encoding, frame);
+        slot.bytes += frame.size();
+        bytes += frame.size();
+      }
+      frames.add(frame);
+    }
+
+    int evicted = 0;
+    while (bytes > maxBytes && size > 1) {
+      evictOldest();
+      evicted++;
+    }
+    return evicted == 0 ? frames : frames.subList(evicted, frames.size());
+  }
+
+  public void clear() {
+    lock.lock();
+    try {
+      while (size > 0) {
+        evictOldest();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private int tail() {
+    return Math.floorMod(head - size, slots.length);
+  }
+
+  private void evictOldest() {
+    Slot slot = slots[tail()];
+    slot.frames.values().forEach(Frame::release);
+    slot.frames.clear();
+    slot.message = null;
+    bytes -= slot.bytes;
+    slot.bytes = 0;
+    size--;
+  }
+
+  private static final class Slot {
+    final Map<Object, Frame> frames = Maps.newHashMapWithExpectedSize(4);
+    long time;
+    Message message;
+    long bytes;
+  }
+}
@@ -1,29 +1,56 @@
 package chat.server;
 
 import chat.common.Message;
+import chat.common.MessageCodec;
 
-import java.nio.channels.SocketChannel;
+import java.nio.ByteBuffer;
 
 import static chat.common.Message.message;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
  * Created by Rafael on 1/24/2017.
  */
 class SendMessageCommand implements Command {
-  private final ChatService server;
-  private final SocketChannel channel;
-
-  public SendMessageCommand(ChatService server, SocketChannel channel) {
-    this.server = server;
-    this.channel = channel;
-  }
+  private static final ByteBuffer SAYS = ByteBuffer.wrap(" says: ".getBytes(UTF_8)).asReadOnlyBuffer();
 
   @Override
-  public void execute(Chat chat, Message msg) {
+  public void execute(ChatConnection connection, Message msg) {
+    ByteBuffer encoded = msg.encoded();
+    if (encoded != null && passThrough(connection, msg, encoded)) {
+      return;
+    }
     String user = msg.getFirst("user");
     String message = msg.getFirst("message");
     String roomName = msg.getFirst("room");
     String str = user + " says: " + message;
-    server.send(chat.room(roomName), message(msg.type(), msg.corrId()).with("message", str));
+    Message broadcast = message(msg.type(), msg.corrId()).with("message", str);
+    connection.publish(connection.chat().room(roomName), broadcast, ChatJournal.said(roomName, user, broadcast));
+  }
+
+  /**
+   * builds the broadcast and the journal record from the bytes of a binary
+   * message, only the room name becomes a string. binary members get the
+   * broadcast as it is, other formats decode it once per format.
+   */
+  private boolean passThrough(ChatConnection connection, Message msg, ByteBuffer encoded) {
+    ByteBuffer[] values = MessageCodec.values(encoded, "room", "user", "message");
+    ByteBuffer room = values[0];
+    ByteBuffer user = values[1];
+    ByteBuffer text = values[2];
+    if (room == null || user == null || text == null) {
+      return false;
+    }
+    byte[] broadcast = MessageCodec.builder(msg.type(), msg.corrId(), 1)
+        .with("message", user, SAYS, text)
+        .build();
+    byte[] record = MessageCodec.builder(msg.type(), msg.corrId(), 3)
+        .with("room", room)
+        .with("user", user)
+        .with("message", user, SAYS, text)
+        .build();
+    connection.publish(connection.chat().room(MessageCodec.string(room)),
+        MessageCodec.wrap(ByteBuffer.wrap(broadcast)), MessageCodec.wrap(ByteBuffer.wrap(record)));
+    return true;
   }
 }
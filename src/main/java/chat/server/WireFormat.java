@@ -0,0 +1,57 @@
+package chat.server;
+
+import chat.common.Message;
+import network.BufferTranslator;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * formats a connection can speak. json lines connections start straight with
+ * a message, every other format starts with a one byte preamble.
+ */
+public enum WireFormat {
+  JSON_LINES(null, ChatTranslator::translator),
+  FRAMED_JSON((byte) 1, ChatTranslator::framed),
+  FRAMED_BINARY((byte) 2, ChatTranslator::binary);
+
+  private final Byte preamble;
+  private final Supplier<ChatTranslator> factory;
+  private final ChatTranslator encoder;
+
+  WireFormat(Byte preamble, Supplier<ChatTranslator> factory) {
+    this.preamble = preamble;
+    this.factory = factory;
+    this.encoder = factory.get();
+  }
+
+  /**
+   * format announced by the first byte a connection sends
+   */
+  public static WireFormat negotiate(byte first) {
+    for (WireFormat format : values()) {
+      if (format.preamble != null && format.preamble == first) {
+        return format;
+      }
+    }
+    return JSON_LINES;
+  }
+
+  public Byte preamble() {
+    return preamble;
+  }
+
+  /**
+   * a new translator, its decoder keeps the state of one connection
+   */
+  public BufferTranslator<List<Message>> translator() {
+    return factory.get();
+  }
+
+  /**
+   * encoding is stateless so every connection of a format shares one encoder
+   */
+  public byte[] encode(List<Message> msgs) {
+    return encoder.to(msgs);
+  }
+}
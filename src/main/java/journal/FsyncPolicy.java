@@ -0,0 +1,10 @@
+package journal;
+
+/**
+ * when appended records are forced to disk, NONE leaves it to the os page cache,
+ * BATCHED forces from a background thread at a fixed interval and EVERY_WRITE
+ * forces before append returns
+ */
+public enum FsyncPolicy {
+  NONE, BATCHED, EVERY_WRITE
+}
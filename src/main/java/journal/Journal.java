@@ -0,0 +1,249 @@
+package journal;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * append only log of opaque records over memory mapped segment files.
+ *
+ * a segment is named after the sequence of its first record and preallocated to
+ * the segment size, a record is its payload length, a crc32 of the payload, its
+ * sequence and the payload. a zero length marks the end of the written part, a
+ * torn record at the end fails its crc and is cleared on the next open.
+ */
+public class Journal implements Closeable {
+  private static final Logger logger = Logger.getLogger(Journal.class);
+  static final int HEADER_SIZE = 16;
+  static final String SUFFIX = ".journal";
+
+  private final Path dir;
+  private int segmentSize = 64 * 1024 * 1024;
+  private FsyncPolicy fsync = FsyncPolicy.BATCHED;
+  private long fsyncIntervalMillis = 100;
+  private int retainSegments;
+
+  // held across a force so flushes run one at a time, taken before the journal's lock
+  private final Object forceLock = new Object();
+  private final CRC32 crc = new CRC32();
+  private final byte[] scratch = new byte[JournalReader.SCRATCH_SIZE];
+  private ScheduledExecutorService flusher;
+  private MappedByteBuffer segment;
+  private long nextSequence = 1;
+  private boolean dirty;
+
+  public Journal(Path dir) {
+    checkArgument(dir != null, "dir cannot be null");
+    this.dir = dir;
+  }
+
+  public Journal segmentSize(int bytes) {
+    checkArgument(bytes > HEADER_SIZE, "segment too small");
+    this.segmentSize = bytes;
+    return this;
+  }
+
+  /**
+   * the interval only applies to BATCHED
+   */
+  public Journal fsync(FsyncPolicy policy, long interval, TimeUnit unit) {
+    checkArgument(policy != null, "policy cannot be null");
+    checkArgument(interval > 0, "interval must be positive");
+    this.fsync = policy;
+    this.fsyncIntervalMillis = unit.toMillis(interval);
+    return this;
+  }
+
+  /**
+   * segments kept when rolling over, older ones are deleted, zero keeps all
+   */
+  public Journal retain(int segments) {
+    checkArgument(segments >= 0, "segments cannot be negative");
+    this.retainSegments = segments;
+    return this;
+  }
+
+  /**
+   * continues after the last intact record of the newest segment
+   */
+  public synchronized Journal open() throws IOException {
+    checkState(segment == null, "journal already open");
+    Files.createDirectories(dir);
+
+    List<Path> segments = JournalReader.segments(dir);
+    if (segments.isEmpty()) {
+      roll();
+    } else {
+      Path last = segments.get(segments.size() - 1);
+      segment = map(last, Math.max(segmentSize, (int) Files.size(last)));
+      nextSequence = JournalReader.firstSequence(last);
+      while (segment.remaining() >= HEADER_SIZE) {
+        int start = segment.position();
+        long sequence = JournalReader.next(segment, crc, scratch);
+        if (sequence < 0) {
+          segment.position(start);
+          break;
+        }
+        nextSequence = sequence + 1;
+      }
+      clearTail();
+      retention();
+    }
+
+    if (fsync == FsyncPolicy.BATCHED) {
+      flusher = Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder().setNameFormat("journal-fsync").setDaemon(true).build());
+      flusher.scheduleWithFixedDelay(this::flushQuietly, fsyncIntervalMillis, fsyncIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+    logger.info("journal opened at " + dir + ", next sequence " + nextSequence);
+    return this;
+  }
+
+  /**
+   * appends the payload as one record, returns the record's sequence
+   */
+  public synchronized long append(byte[] payload) throws IOException {
+    checkState(segment != null, "journal not open");
+    checkArgument(payload != null && payload.length > 0, "payload cannot be empty");
+    checkArgument(payload.length + HEADER_SIZE <= segmentSize, "payload larger than a segment");
+
+    if (segment.remaining() < HEADER_SIZE + payload.length) {
+      roll();
+    }
+    crc.reset();
+    crc.update(payload, 0, payload.length);
+
+    long sequence = nextSequence++;
+    int start = segment.position();
+    // the length goes in last so a reader never sees a half written record
+    segment.position(start + 4);
+    segment.putInt((int) crc.getValue());
+    segment.putLong(sequence);
+    segment.put(payload);
+    segment.putInt(start, payload.length);
+    dirty = true;
+
+    if (fsync == FsyncPolicy.EVERY_WRITE) {
+      segment.force();
+      dirty = false;
+    }
+    return sequence;
+  }
+
+  /**
+   * sequence the next append gets
+   */
+  public synchronized long nextSequence() {
+    return nextSequence;
+  }
+
+  /**
+   * forces what was appended before the call, appends carry on meanwhile
+   */
+  public void flush() {
+    force(false);
+  }
+
+  public Path dir() {
+    return dir;
+  }
+
+  @Override
+  public void close() {
+    force(true);
+  }
+
+  private void flushQuietly() {
+    try {
+      flush();
+    } catch (RuntimeException e) {
+      logger.error("Error forcing journal", e);
+    }
+  }
+
+  /**
+   * the segment is forced outside the journal's lock so appends, and the room
+   * locks held around them, never wait for the disk. a segment rolled or
+   * closed meanwhile stays mapped until the force is done with it.
+   */
+  private void force(boolean close) {
+    synchronized (forceLock) {
+      MappedByteBuffer forced;
+      synchronized (this) {
+        forced = dirty ? segment : null;
+        dirty = false;
+        if (close) {
+          if (flusher != null) {
+            flusher.shutdown();
+          }
+          segment = null;
+        }
+      }
+      if (forced != null) {
+        forced.force();
+      }
+    }
+  }
+
+  private void roll() throws IOException {
+    if (segment != null && fsync != FsyncPolicy.NONE) {
+      segment.force();
+    }
+    Path path = dir.resolve(String.format("%020d%s", nextSequence, SUFFIX));
+    segment = map(path, segmentSize);
+    dirty = false;
+    retention();
+  }
+
+  private void retention() throws IOException {
+    if (retainSegments == 0) {
+      return;
+    }
+    List<Path> segments = JournalReader.segments(dir);
+    for (int i = 0; i < segments.size() - retainSegments; i++) {
+      Files.deleteIfExists(segments.get(i));
+      logger.info("deleted journal segment " + segments.get(i).getFileName());
+    }
+  }
+
+  /**
+   * zeroes whatever a torn write left behind the last intact record, only
+   * writing where something is set so untouched pages stay unallocated
+   */
+  private void clearTail() {
+    int i = segment.position();
+    int limit = segment.limit();
+    for (; i + 8 <= limit; i += 8) {
+      if (segment.getLong(i) != 0) {
+        segment.putLong(i, 0);
+      }
+    }
+    for (; i < limit; i++) {
+      segment.put(i, (byte) 0);
+    }
+  }
+
+  private static MappedByteBuffer map(Path path, int size) throws IOException {
+    try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+      if (file.length() < size) {
+        file.setLength(size);
+      }
+      return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+  }
+}
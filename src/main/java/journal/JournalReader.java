@@ -0,0 +1,124 @@
+package journal;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Collections.emptyList;
+
+/**
+ * sequential scan over the segments of a journal directory, segments wholly
+ * before the requested sequence are skipped without being mapped
+ */
+public class JournalReader {
+  private static final Logger logger = Logger.getLogger(JournalReader.class);
+  static final int SCRATCH_SIZE = 8192;
+
+  public interface Handler {
+    /**
+     * the payload is a view into the mapped segment, only valid during the call
+     */
+    void record(long sequence, ByteBuffer payload);
+  }
+
+  private final Path dir;
+
+  public JournalReader(Path dir) {
+    checkArgument(dir != null, "dir cannot be null");
+    this.dir = dir;
+  }
+
+  /**
+   * hands every intact record from the given sequence on to the handler,
+   * returns the sequence of the last one or from - 1 when there is none
+   */
+  public long read(long from, Handler handler) throws IOException {
+    List<Path> segments = segments(dir);
+    CRC32 crc = new CRC32();
+    byte[] scratch = new byte[SCRATCH_SIZE];
+    long last = from - 1;
+    for (int i = 0; i < segments.size(); i++) {
+      if (i + 1 < segments.size() && firstSequence(segments.get(i + 1)) <= from) {
+        continue;
+      }
+      ByteBuffer segment = map(segments.get(i));
+      while (segment.remaining() >= Journal.HEADER_SIZE) {
+        int start = segment.position();
+        long sequence = next(segment, crc, scratch);
+        if (sequence < 0) {
+          break;
+        }
+        if (sequence >= from) {
+          ByteBuffer payload = segment.duplicate();
+          payload.position(start + Journal.HEADER_SIZE).limit(segment.position());
+          handler.record(sequence, payload.slice());
+          last = sequence;
+        }
+      }
+    }
+    return last;
+  }
+
+  static List<Path> segments(Path dir) throws IOException {
+    if (!Files.isDirectory(dir)) {
+      return emptyList();
+    }
+    try (Stream<Path> files = Files.list(dir)) {
+      return files.filter(path -> path.getFileName().toString().endsWith(Journal.SUFFIX))
+          .sorted()
+          .collect(Collectors.toList());
+    }
+  }
+
+  static long firstSequence(Path segment) {
+    String name = segment.getFileName().toString();
+    return Long.parseLong(name.substring(0, name.length() - Journal.SUFFIX.length()));
+  }
+
+  /**
+   * steps over the record at the buffer's position and returns its sequence, or
+   * returns -1 at the end of the written part or on a torn record
+   */
+  static long next(ByteBuffer segment, CRC32 crc, byte[] scratch) {
+    int start = segment.position();
+    int length = segment.getInt(start);
+    if (length <= 0 || length > segment.remaining() - Journal.HEADER_SIZE) {
+      return -1;
+    }
+    int checksum = segment.getInt(start + 4);
+    long sequence = segment.getLong(start + 8);
+
+    ByteBuffer payload = segment.duplicate();
+    payload.position(start + Journal.HEADER_SIZE).limit(start + Journal.HEADER_SIZE + length);
+    crc.reset();
+    // CRC32.update(ByteBuffer) only exists from java 9
+    while (payload.hasRemaining()) {
+      int n = Math.min(scratch.length, payload.remaining());
+      payload.get(scratch, 0, n);
+      crc.update(scratch, 0, n);
+    }
+    if ((int) crc.getValue() != checksum) {
+      logger.warn("torn journal record at sequence " + sequence);
+      return -1;
+    }
+    segment.position(start + Journal.HEADER_SIZE + length);
+    return sequence;
+  }
+
+  private static MappedByteBuffer map(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+  }
+}
@@ -0,0 +1,24 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * monotonically increasing count, cheap to bump from many threads
+ */
+public class Counter implements LongSupplier {
+  private final LongAdder count = new LongAdder();
+
+  public void increment() {
+    count.increment();
+  }
+
+  public void add(long n) {
+    count.add(n);
+  }
+
+  @Override
+  public long getAsLong() {
+    return count.sum();
+  }
+}
@@ -0,0 +1,80 @@
+package metrics;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanConstructorInfo;
+import javax.management.ObjectName;
+import javax.management.JMException;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+/**
+ * read only view of a registry over jmx, one attribute per flattened value
+ */
+public class MetricsMBean implements DynamicMBean {
+  private final MetricsRegistry registry;
+
+  public MetricsMBean(MetricsRegistry registry) {
+    this.registry = registry;
+  }
+
+  /**
+   * registers the view with the platform mbean server, e.g. under chat:type=Metrics
+   */
+  public static void register(MetricsRegistry registry, String name) throws JMException {
+    ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(registry), new ObjectName(name));
+  }
+
+  @Override
+  public Object getAttribute(String attribute) throws AttributeNotFoundException {
+    Number value = registry.values().get(attribute);
+    if (value == null) {
+      throw new AttributeNotFoundException(attribute);
+    }
+    return value;
+  }
+
+  @Override
+  public AttributeList getAttributes(String[] attributes) {
+    Map<String, Number> values = registry.values();
+    AttributeList list = new AttributeList();
+    for (String attribute : attributes) {
+      if (values.containsKey(attribute)) {
+        list.add(new Attribute(attribute, values.get(attribute)));
+      }
+    }
+    return list;
+  }
+
+  @Override
+  public void setAttribute(Attribute attribute) {
+    throw new UnsupportedOperationException("metrics are read only");
+  }
+
+  @Override
+  public AttributeList setAttributes(AttributeList attributes) {
+    return new AttributeList();
+  }
+
+  @Override
+  public Object invoke(String actionName, Object[] params, String[] signature) {
+    throw new UnsupportedOperationException(actionName);
+  }
+
+  @Override
+  public MBeanInfo getMBeanInfo() {
+    Map<String, Number> values = registry.values();
+    MBeanAttributeInfo[] attributes = values.entrySet().stream()
+        .map(value -> new MBeanAttributeInfo(value.getKey(), value.getValue().getClass().getName(),
+            value.getKey(), true, false, false))
+        .toArray(MBeanAttributeInfo[]::new);
+    return new MBeanInfo(getClass().getName(), "metrics", attributes,
+        new MBeanConstructorInfo[0], new MBeanOperationInfo[0], new MBeanNotificationInfo[0]);
+  }
+}
@@ -0,0 +1,168 @@
+package metrics;
+
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * named metrics, each family optionally split by label pairs given as
+ * key, value, key, value. families are counters, gauges or latency histograms,
+ * the registry renders them in the prometheus text format and flattens them
+ * into plain numbers for jmx.
+ */
+public class MetricsRegistry {
+  private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+  private final Map<String, Family> families = Maps.newConcurrentMap();
+
+  public Counter counter(String name, String help, String... labels) {
+    Counter counter = new Counter();
+    family(name, help, Type.COUNTER).add(labels, counter);
+    return counter;
+  }
+
+  /**
+   * exports a count kept elsewhere, the supplier must only ever grow
+   */
+  public void counter(String name, String help, LongSupplier value, String... labels) {
+    family(name, help, Type.COUNTER).add(labels, value);
+  }
+
+  public void gauge(String name, String help, LongSupplier value, String... labels) {
+    family(name, help, Type.GAUGE).add(labels, value);
+  }
+
+  /**
+   * durations are recorded in nanoseconds and exported in seconds
+   */
+  public LatencyHistogram histogram(String name, String help, String... labels) {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram(name, help, histogram, labels);
+    return histogram;
+  }
+
+  public void histogram(String name, String help, LatencyHistogram histogram, String... labels) {
+    family(name, help, Type.SUMMARY).add(labels, histogram);
+  }
+
+  /**
+   * every metric in the prometheus text exposition format
+   */
+  public String scrape() {
+    StringBuilder out = new StringBuilder();
+    for (Family family : new TreeMap<>(families).values()) {
+      out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+      out.append("# TYPE ").append(family.name).append(' ').append(family.type.name().toLowerCase()).append('\n');
+      for (Map.Entry<String, Object> metric : family.metrics.entrySet()) {
+        String labels = metric.getKey();
+        if (metric.getValue() instanceof LatencyHistogram) {
+          LatencyHistogram histogram = (LatencyHistogram) metric.getValue();
+          for (double quantile : QUANTILES) {
+            line(out, family.name, join(labels, "quantile=\"" + quantile + "\""),
+                seconds(histogram.percentile(quantile * 100)));
+          }
+          line(out, family.name + "_sum", labels, seconds(histogram.sum()));
+          line(out, family.name + "_count", labels, String.valueOf(histogram.count()));
+        } else {
+          line(out, family.name, labels, String.valueOf(((LongSupplier) metric.getValue()).getAsLong()));
+        }
+      }
+    }
+    return out.toString();
+  }
+
+  /**
+   * every value under a flat name, histograms as count, p50, p99 and max in microseconds
+   */
+  public Map<String, Number> values() {
+    Map<String, Number> values = Maps.newTreeMap();
+    for (Family family : families.values()) {
+      for (Map.Entry<String, Object> metric : family.metrics.entrySet()) {
+        String name = family.name + flatten(metric.getKey());
+        if (metric.getValue() instanceof LatencyHistogram) {
+          LatencyHistogram histogram = (LatencyHistogram) metric.getValue();
+          values.put(name + "_count", histogram.count());
+          values.put(name + "_p50_us", histogram.percentile(50, TimeUnit.MICROSECONDS));
+          values.put(name + "_p99_us", histogram.percentile(99, TimeUnit.MICROSECONDS));
+          values.put(name + "_max_us", (double) histogram.max() / 1000);
+        } else {
+          values.put(name, ((LongSupplier) metric.getValue()).getAsLong());
+        }
+      }
+    }
+    return values;
+  }
+
+  private Family family(String name, String help, Type type) {
+    checkArgument(name != null && name.matches("[a-zA-Z_:][a-zA-Z0-9_:]*"), "invalid metric name " + name);
+    Family family = families.computeIfAbsent(name, key -> new Family(name, help, type));
+    checkState(family.type == type, name + " already registered as " + family.type);
+    return family;
+  }
+
+  private static void line(StringBuilder out, String name, String labels, String value) {
+    out.append(name);
+    if (!labels.isEmpty()) {
+      out.append('{').append(labels).append('}');
+    }
+    out.append(' ').append(value).append('\n');
+  }
+
+  private static String join(String labels, String label) {
+    return labels.isEmpty() ? label : labels + "," + label;
+  }
+
+  private static String seconds(long nanos) {
+    return String.valueOf(nanos / 1e9);
+  }
+
+  /**
+   * type="READ",loop="1" becomes _READ_1
+   */
+  private static String flatten(String labels) {
+    if (labels.isEmpty()) {
+      return "";
+    }
+    StringBuilder name = new StringBuilder();
+    for (String label : labels.split(",")) {
+      name.append('_').append(label.substring(label.indexOf('=') + 2, label.length() - 1));
+    }
+    return name.toString();
+  }
+
+  private enum Type {
+    COUNTER, GAUGE, SUMMARY
+  }
+
+  private static final class Family {
+    final String name;
+    final String help;
+    final Type type;
+    final Map<String, Object> metrics = new ConcurrentSkipListMap<>();
+
+    Family(String name, String help, Type type) {
+      this.name = name;
+      this.help = help;
+      this.type = type;
+    }
+
+    void add(String[] labels, Object metric) {
+      checkArgument(labels.length % 2 == 0, "labels must be key value pairs");
+      StringBuilder key = new StringBuilder();
+      for (int i = 0; i < labels.length; i += 2) {
+        if (key.length() > 0) {
+          key.append(',');
+        }
+        key.append(labels[i]).append("=\"").append(labels[i + 1].replace("\"", "\\\"")).append('"');
+      }
+      checkState(metrics.putIfAbsent(key.toString(), metric) == null, "metric " + name + "{" + key + "} already registered");
+    }
+  }
+}
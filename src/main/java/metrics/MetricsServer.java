@@ -0,0 +1,42 @@
+package metrics;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * serves the registry as prometheus text on /metrics from the jdk http server,
+ * meant to be bound to localhost and scraped
+ */
+public class MetricsServer {
+  private static final Logger logger = Logger.getLogger(MetricsServer.class);
+
+  private final HttpServer server;
+
+  public MetricsServer(MetricsRegistry registry, InetSocketAddress address) throws IOException {
+    server = HttpServer.create(address, 0);
+    server.createContext("/metrics", exchange -> {
+      byte[] body = registry.scrape().getBytes(UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    });
+  }
+
+  public MetricsServer start() {
+    server.start();
+    logger.info("serving metrics on " + server.getAddress());
+    return this;
+  }
+
+  public void stop() {
+    server.stop(0);
+  }
+}
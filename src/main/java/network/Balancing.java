@@ -0,0 +1,8 @@
+package network;
+
+/**
+ * strategy used by the acceptor loop to hand accepted channels to worker loops
+ */
+public enum Balancing {
+  ROUND_ROBIN, LEAST_LOADED;
+}
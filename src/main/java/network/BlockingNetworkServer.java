@@ -0,0 +1,254 @@
+package network;
+
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * thread per connection server with blocking reads and writes, listeners get the
+ * same events as with NetworkServer, each connection's events on its own thread.
+ *
+ * sends write straight to the socket while holding the connection, so a slow
+ * consumer slows its senders down instead of growing a queue, watermarks and
+ * overflow policies do not apply. a sender holding a lock, like a room's, holds
+ * it for as long as the write takes, so a write blocked past the write timeout
+ * closes its connection. idle timeouts are not supported, idle connections stay
+ * open until the peer closes them.
+ */
+public class BlockingNetworkServer extends Network {
+  private static final Logger logger = Logger.getLogger(BlockingNetworkServer.class);
+  private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+  private final Map<SocketChannel, Peer> open = Maps.newConcurrentMap();
+  private ThreadFactory threads = defaultThreads();
+  private long writeTimeoutNanos = TimeUnit.SECONDS.toNanos(10);
+  private ScheduledExecutorService watchdog;
+  private ServerSocketChannel channel;
+
+  /**
+   * virtual threads when the runtime has them, platform threads otherwise
+   */
+  public static ThreadFactory defaultThreads() {
+    try {
+      Method ofVirtual = Thread.class.getMethod("ofVirtual");
+      Object builder = ofVirtual.invoke(null);
+      Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+      return (ThreadFactory) factory.invoke(builder);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return new ThreadFactoryBuilder().setNameFormat("connection-%d").setDaemon(true).build();
+    }
+  }
+
+  public BlockingNetworkServer threads(ThreadFactory threads) {
+    checkArgument(threads != null, "threads cannot be null");
+    this.threads = threads;
+    return this;
+  }
+
+  /**
+   * how long a send may block on a peer that is not reading before its
+   * connection is closed, zero waits forever, must be set before bind
+   */
+  public BlockingNetworkServer writeTimeout(long timeout, TimeUnit unit) {
+    checkArgument(timeout >= 0, "timeout cannot be negative");
+    this.writeTimeoutNanos = unit.toNanos(timeout);
+    return this;
+  }
+
+  public void bind(int port) throws IOException {
+    checkArgument(port >= 0, "port cannot be negative");
+    checkState(channel == null, "server already bound");
+
+    channel = ServerSocketChannel.open();
+    channel.socket().bind(new InetSocketAddress(port), 1024);
+    logger.info("socket bound to port " + port);
+
+    // connection threads are daemons, this one keeps the process up until stop
+    Thread acceptor = new Thread(this::acceptLoop, "blocking-acceptor");
+    acceptor.setDaemon(false);
+    acceptor.start();
+
+    if (writeTimeoutNanos > 0) {
+      long period = Math.max(TimeUnit.MILLISECONDS.toNanos(10), writeTimeoutNanos / 4);
+      watchdog = Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder().setNameFormat("blocking-write-timeout").setDaemon(true).build());
+      watchdog.scheduleWithFixedDelay(this::closeStalled, period, period, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  @Override
+  public void stop() {
+    logger.info("requesting stop... " + stats());
+    try {
+      channel.close();
+    } catch (IOException e) {
+      logger.error("Error closing the server socket", e);
+    }
+    for (SocketChannel connection : open.keySet()) {
+      close(connection);
+    }
+    if (watchdog != null) {
+      watchdog.shutdown();
+    }
+    executor.shutdown();
+  }
+
+  @Override
+  int connectionCount() {
+    return open.size();
+  }
+
+  @Override
+  public boolean isOpen(SocketChannel channel) {
+    return open.containsKey(channel);
+  }
+
+  @Override
+  public boolean isWritable(SocketChannel channel) {
+    return isOpen(channel);
+  }
+
+  /**
+   * writes the frame before returning, blocking while the peer is not reading
+   * for at most the write timeout
+   */
+  @Override
+  public void send(SocketChannel channel, Frame frame) {
+    checkArgument(channel != null, "channel cannot be null");
+    checkArgument(frame != null, "frame cannot be null");
+    Peer peer = open.get(channel);
+    if (peer == null) {
+      logger.debug("dropping data for unknown channel");
+      return;
+    }
+
+    ByteBuffer view = frame.view();
+    // a lock rather than a monitor so blocked virtual threads do not pin their carrier
+    peer.lock.lock();
+    try {
+      peer.writingSince = System.nanoTime();
+      while (view.hasRemaining()) {
+        stats().write(channel.write(view));
+      }
+      stats().written(1);
+    } catch (IOException e) {
+      logger.debug("Error writing, closing connection", e);
+      close(channel);
+    } finally {
+      peer.writingSince = 0;
+      peer.lock.unlock();
+    }
+  }
+
+  @Override
+  public void broadcast(Frame frame) {
+    checkArgument(frame != null, "frame cannot be null");
+    open.keySet().forEach(channel -> send(channel, frame));
+  }
+
+  /**
+   * closes the socket, its connection thread sees the read fail and fires DISCONNECT
+   */
+  @Override
+  public void close(SocketChannel channel) {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      logger.error("Error closing connection", e);
+    }
+  }
+
+  @Override
+  public void disconnect(SocketChannel channel) throws IOException {
+    close(channel);
+  }
+
+  /**
+   * closing the channel fails the blocked write, which releases the sender
+   */
+  private void closeStalled() {
+    long now = System.nanoTime();
+    open.forEach((channel, peer) -> {
+      long since = peer.writingSince;
+      if (since != 0 && now - since >= writeTimeoutNanos) {
+        logger.info("closing connection blocked on a write for " + TimeUnit.NANOSECONDS.toMillis(now - since) + " ms");
+        close(channel);
+      }
+    });
+  }
+
+  private void acceptLoop() {
+    while (channel.isOpen()) {
+      try {
+        SocketChannel accepted = channel.accept();
+        threads.newThread(() -> serve(accepted)).start();
+      } catch (IOException e) {
+        if (channel.isOpen()) {
+          logger.error("Error accepting connection", e);
+        }
+      }
+    }
+  }
+
+  private void serve(SocketChannel channel) {
+    open.put(channel, new Peer());
+    fire(NetworkEventType.ACCEPT, channel, null);
+
+    ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    try {
+      while (true) {
+        int read = channel.read(buffer);
+        stats().read(read);
+        if (read < 0) {
+          break;
+        }
+        buffer.flip();
+        fire(NetworkEventType.READ, channel, Arrays.copyOf(buffer.array(), buffer.limit()));
+        buffer.clear();
+      }
+    } catch (IOException e) {
+      logger.debug("connection failed", e);
+    } finally {
+      open.remove(channel);
+      close(channel);
+      fire(NetworkEventType.DISCONNECT, channel, null);
+    }
+  }
+
+  private void fire(NetworkEventType type, SocketChannel channel, byte[] data) {
+    NetworkEvent event = new NetworkEvent();
+    event.setNetwork(this);
+    event.setType(type);
+    event.setSocketChannel(channel);
+    event.setData(data);
+    try {
+      notifyListeners(event);
+    } catch (RuntimeException e) {
+      logger.error("Error handling " + type + " event", e);
+    }
+  }
+
+  private static final class Peer {
+    final Lock lock = new ReentrantLock();
+    // when the write in progress started, zero while not writing
+    volatile long writingSince;
+  }
+}
@@ -0,0 +1,120 @@
+package network;
+
+import com.google.common.collect.Queues;
+import com.google.common.collect.Sets;
+import org.apache.log4j.Logger;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.Lists.newArrayListWithCapacity;
+
+/**
+ * pool of direct buffers in power of four size classes, one per selector loop.
+ * buffers may be released from any thread. when the network.buffers.debug
+ * system property is set every acquired buffer records where it came from and
+ * buffers never released are reported when the pool is closed.
+ */
+class BufferPool {
+  private static final Logger logger = Logger.getLogger(BufferPool.class);
+
+  static final int MIN_SIZE = 1024;
+  static final int MAX_SIZE = 64 * 1024;
+  static final boolean DEBUG = Boolean.getBoolean("network.buffers.debug");
+
+  private static final int CLASSES = 4;
+
+  private final int maxPooled;
+  private final boolean debug;
+  private final List<Queue<ByteBuffer>> free = newArrayListWithCapacity(CLASSES);
+  private final AtomicInteger[] pooled;
+  private final Set<PooledBuffer> outstanding = Sets.newConcurrentHashSet();
+
+  BufferPool(int maxPooled, boolean debug) {
+    checkArgument(maxPooled >= 0, "maxPooled cannot be negative");
+    this.maxPooled = maxPooled;
+    this.debug = debug;
+    this.pooled = new AtomicInteger[CLASSES];
+    for (int i = 0; i < CLASSES; i++) {
+      free.add(Queues.newConcurrentLinkedQueue());
+      pooled[i] = new AtomicInteger();
+    }
+  }
+
+  BufferPool() {
+    this(64, DEBUG);
+  }
+
+  /**
+   * a cleared buffer of at least size bytes, at most MAX_SIZE
+   */
+  PooledBuffer acquire(int size) {
+    int sizeClass = sizeClass(size);
+    ByteBuffer buffer = free.get(sizeClass).poll();
+    if (buffer == null) {
+      buffer = ByteBuffer.allocateDirect(MIN_SIZE << (2 * sizeClass));
+    } else {
+      pooled[sizeClass].decrementAndGet();
+      buffer.clear();
+    }
+
+    PooledBuffer result = new PooledBuffer(this, buffer, sizeClass,
+        debug ? new Throwable("buffer acquired here") : null);
+    if (debug) {
+      outstanding.add(result);
+    }
+    return result;
+  }
+
+  /**
+   * moves the written bytes of a full buffer into one of the next size class
+   */
+  PooledBuffer grow(PooledBuffer full) {
+    PooledBuffer larger = acquire(full.buffer().capacity() * 4);
+    full.buffer().flip();
+    larger.buffer().put(full.buffer());
+    full.release();
+    return larger;
+  }
+
+  void recycle(PooledBuffer released) {
+    if (debug) {
+      outstanding.remove(released);
+    }
+    int sizeClass = released.sizeClass();
+    if (pooled[sizeClass].incrementAndGet() <= maxPooled) {
+      free.get(sizeClass).add(released.buffer());
+    } else {
+      pooled[sizeClass].decrementAndGet();
+    }
+  }
+
+  /**
+   * number of buffers acquired and not yet released, only tracked in debug mode
+   */
+  int leaks() {
+    return outstanding.size();
+  }
+
+  void close() {
+    for (PooledBuffer leak : outstanding) {
+      logger.error("buffer leaked, never released", leak.allocation());
+    }
+    outstanding.clear();
+    for (Queue<ByteBuffer> queue : free) {
+      queue.clear();
+    }
+  }
+
+  private static int sizeClass(int size) {
+    int sizeClass = 0;
+    while (sizeClass < CLASSES - 1 && (MIN_SIZE << (2 * sizeClass)) < size) {
+      sizeClass++;
+    }
+    return sizeClass;
+  }
+}
@@ -0,0 +1,20 @@
+package network;
+
+import java.nio.ByteBuffer;
+
+/**
+ * translator that can also decode straight from a read buffer, such as
+ * NetworkEvent.buffer(), instead of a copy of it
+ */
+public interface BufferTranslator<To> extends Translator<byte[], To> {
+
+  /**
+   * the buffer is only valid during the call, anything kept must be copied out.
+   * the default copies the whole buffer once.
+   */
+  default To from(ByteBuffer bytes) {
+    byte[] copy = new byte[bytes.remaining()];
+    bytes.get(copy);
+    return from(copy);
+  }
+}
@@ -0,0 +1,94 @@
+package network;
+
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * a socket channel together with the selector loop that owns it and its write queue
+ */
+class Connection {
+  private final SocketChannel channel;
+  private final SelectorLoop loop;
+  private final OutboundQueue queue = new OutboundQueue();
+  private final AtomicBoolean dirty = new AtomicBoolean();
+  // when the loop first deferred the pending output, 0 when nothing is deferred
+  private long deferredSince;
+  // idle tracking, only touched from the loop
+  private long lastRead = System.nanoTime();
+  private boolean idleSignalled;
+  private Timeout idleCheck;
+
+  Connection(SocketChannel channel, SelectorLoop loop) {
+    this.channel = channel;
+    this.loop = loop;
+  }
+
+  SocketChannel channel() {
+    return channel;
+  }
+
+  SelectorLoop loop() {
+    return loop;
+  }
+
+  OutboundQueue queue() {
+    return queue;
+  }
+
+  /**
+   * true if the connection was not already waiting for its loop to pick up new output
+   */
+  boolean markDirty() {
+    return dirty.compareAndSet(false, true);
+  }
+
+  void clearDirty() {
+    dirty.set(false);
+    deferredSince = 0;
+  }
+
+  /**
+   * when the loop first held back this connection's output, only used from the loop
+   */
+  long deferredSince(long now) {
+    if (deferredSince == 0) {
+      deferredSince = now;
+    }
+    return deferredSince;
+  }
+
+  long lastRead() {
+    return lastRead;
+  }
+
+  void read(long now) {
+    lastRead = now;
+    idleSignalled = false;
+  }
+
+  /**
+   * true the first time it is called since the last read
+   */
+  boolean signalIdle() {
+    if (idleSignalled) {
+      return false;
+    }
+    idleSignalled = true;
+    return true;
+  }
+
+  void idleCheck(Timeout timeout) {
+    idleCheck = timeout;
+  }
+
+  void cancelIdleCheck() {
+    if (idleCheck != null) {
+      idleCheck.cancel();
+    }
+  }
+
+  SelectionKey key() {
+    return channel.keyFor(loop.selector());
+  }
+}
@@ -0,0 +1,214 @@
+package network;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import metrics.MetricsRegistry;
+import org.apache.log4j.Logger;
+
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static network.NetworkEventType.IDLE;
+import static network.NetworkEventType.READ;
+import static network.NetworkEventType.WRITE;
+
+/**
+ * runs a listener on a pool of lanes instead of the selector loops, every event of
+ * a channel goes to the same lane so a connection is still handled in order.
+ *
+ * WRITE events, one per flush of every connection, are skipped unless asked for
+ * with writeEvents, most listeners have nothing to do with them.
+ *
+ * lanes are bounded for everything a peer can flood them with, a READ that finds its
+ * lane full closes the connection, WRITE and IDLE notifications and writability
+ * changes are dropped, each counted as rejected. lifecycle events are queued past
+ * the bound, there is at most a few per connection, so the selector loop never
+ * waits on a lane and a channel's events stay in order.
+ */
+public class ExecutionStage implements NetworkListener {
+  private static final Logger logger = Logger.getLogger(ExecutionStage.class);
+  private static final Runnable STOP = () -> {};
+
+  private final NetworkListener listener;
+  private final List<Lane> lanes = Lists.newArrayList();
+  private final LongAdder submitted = new LongAdder();
+  private final LongAdder completed = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+  private final LongAccumulator maxDepth = new LongAccumulator(Math::max, 0);
+  private volatile boolean writeEvents;
+
+  public ExecutionStage(NetworkListener listener, int threads, int capacity) {
+    this(listener, threads, capacity, new ThreadFactoryBuilder().setNameFormat("stage-%d").build());
+  }
+
+  /**
+   * the thread factory may hand out virtual threads where the runtime has them
+   */
+  public ExecutionStage(NetworkListener listener, int threads, int capacity, ThreadFactory factory) {
+    checkArgument(listener != null, "listener cannot be null");
+    checkArgument(threads > 0, "threads must be positive");
+    checkArgument(capacity > 0, "capacity must be positive");
+    this.listener = listener;
+    for (int i = 0; i < threads; i++) {
+      Lane lane = new Lane(capacity);
+      lanes.add(lane);
+      factory.newThread(lane).start();
+    }
+  }
+
+  /**
+   * whether WRITE events reach the listener, off by default
+   */
+  public ExecutionStage writeEvents(boolean forward) {
+    this.writeEvents = forward;
+    return this;
+  }
+
+  @Override
+  public void onEvent(NetworkEvent event) {
+    if (event.type() == WRITE && !writeEvents) {
+      return;
+    }
+    Lane lane = lane(event.channel());
+    Runnable task = () -> {
+      try {
+        listener.onEvent(event);
+      } catch (RuntimeException e) {
+        logger.error("Error handling " + event.type() + " event", e);
+      } finally {
+        event.release();
+        completed.increment();
+      }
+    };
+
+    event.retain();
+    boolean lifecycle = event.type() != READ && event.type() != WRITE && event.type() != IDLE;
+    if (!lane.offer(task, lifecycle)) {
+      event.release();
+      rejected.increment();
+      if (event.type() == READ) {
+        logger.warn("closing connection, execution stage is full");
+        event.network().close(event.channel());
+      }
+      return;
+    }
+    submitted.increment();
+    maxDepth.accumulate(lane.queue.size());
+  }
+
+  @Override
+  public void onWritabilityChanged(SocketChannel channel, boolean writable) {
+    // dropped like a WRITE when the lane is full, the next change or WRITE event tells the listener again
+    boolean queued = lane(channel).offer(() -> {
+      try {
+        listener.onWritabilityChanged(channel, writable);
+      } catch (RuntimeException e) {
+        logger.error("Error handling writability change", e);
+      }
+    }, false);
+    if (!queued) {
+      rejected.increment();
+    }
+  }
+
+  /**
+   * lets every lane finish what is already queued and exit
+   */
+  public void stop() {
+    for (Lane lane : lanes) {
+      lane.offer(STOP, true);
+    }
+  }
+
+  /**
+   * events waiting in all lanes right now
+   */
+  public int depth() {
+    return lanes.stream().mapToInt(lane -> lane.queue.size()).sum();
+  }
+
+  /**
+   * deepest a single lane has been since the last reset
+   */
+  public long maxDepth() {
+    return maxDepth.get();
+  }
+
+  public long submitted() {
+    return submitted.sum();
+  }
+
+  public long completed() {
+    return completed.sum();
+  }
+
+  public long rejected() {
+    return rejected.sum();
+  }
+
+  /**
+   * exports the queue depths and event counts
+   */
+  public ExecutionStage metrics(MetricsRegistry registry) {
+    registry.gauge("stage_depth", "events waiting in all lanes", this::depth);
+    registry.gauge("stage_max_depth", "deepest a single lane has been", this::maxDepth);
+    registry.counter("stage_submitted_total", "events queued to a lane", this::submitted);
+    registry.counter("stage_completed_total", "events handled by a lane", this::completed);
+    registry.counter("stage_rejected_total", "events refused by a full lane", this::rejected);
+    return this;
+  }
+
+  public void reset() {
+    maxDepth.reset();
+    submitted.reset();
+    completed.reset();
+    rejected.reset();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("lanes=%d depth=%d maxDepth=%d submitted=%d completed=%d rejected=%d",
+        lanes.size(), depth(), maxDepth(), submitted(), completed(), rejected());
+  }
+
+  private Lane lane(SocketChannel channel) {
+    return lanes.get(Math.floorMod(System.identityHashCode(channel), lanes.size()));
+  }
+
+  private static final class Lane implements Runnable {
+    final BlockingQueue<Runnable> queue = new LinkedBlockingQueue<>();
+    final int capacity;
+
+    Lane(int capacity) {
+      this.capacity = capacity;
+    }
+
+    /**
+     * never blocks, bounded tasks are refused once the lane holds its capacity.
+     * the check races with other producers, the bound can be overshot by a few.
+     */
+    boolean offer(Runnable task, boolean unbounded) {
+      if (!unbounded && queue.size() >= capacity) {
+        return false;
+      }
+      return queue.offer(task);
+    }
+
+    @Override
+    public void run() {
+      try {
+        for (Runnable task = queue.take(); task != STOP; task = queue.take()) {
+          task.run();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
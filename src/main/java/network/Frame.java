@@ -0,0 +1,63 @@
+package network;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * immutable, reference counted block of encoded bytes that can be queued on
+ * many connections at once. every queue holds its own view with its own
+ * position over the same bytes and releases its reference once written.
+ */
+public class Frame {
+  private static final Runnable NOOP = () -> { };
+
+  public static Frame wrap(byte[] data) {
+    checkArgument(data != null, "data cannot be null");
+    return new Frame(ByteBuffer.wrap(data), NOOP);
+  }
+
+  private final ByteBuffer buffer;
+  private final Runnable recycler;
+  private final AtomicInteger refCnt = new AtomicInteger(1);
+
+  Frame(ByteBuffer buffer, Runnable recycler) {
+    this.buffer = buffer.asReadOnlyBuffer();
+    this.recycler = recycler;
+  }
+
+  public int size() {
+    return buffer.remaining();
+  }
+
+  /**
+   * an independent read only view over the frame bytes
+   */
+  public ByteBuffer view() {
+    if (refCnt.get() <= 0) {
+      throw new IllegalStateException("frame already released");
+    }
+    return buffer.duplicate();
+  }
+
+  public Frame retain() {
+    int cnt;
+    do {
+      cnt = refCnt.get();
+      if (cnt <= 0) {
+        throw new IllegalStateException("frame already released");
+      }
+    } while (!refCnt.compareAndSet(cnt, cnt + 1));
+    return this;
+  }
+
+  public void release() {
+    int cnt = refCnt.decrementAndGet();
+    if (cnt == 0) {
+      recycler.run();
+    } else if (cnt < 0) {
+      throw new IllegalStateException("frame released too many times");
+    }
+  }
+}
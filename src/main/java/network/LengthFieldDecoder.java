@@ -0,0 +1,108 @@
+package network;
+
+import com.google.common.collect.Lists;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * splits a stream of frames prefixed by a 4 byte big endian length. complete
+ * frames are returned as slices of the input buffer, only a frame split
+ * across reads is copied aside until the rest of it arrives.
+ */
+public class LengthFieldDecoder implements Function<ByteBuffer, List<ByteBuffer>> {
+  public static final int HEADER_SIZE = 4;
+
+  private final int maxFrameSize;
+  private ByteBuffer pending;
+
+  public LengthFieldDecoder(int maxFrameSize) {
+    checkArgument(maxFrameSize > 0, "maxFrameSize must be positive");
+    this.maxFrameSize = maxFrameSize;
+  }
+
+  /**
+   * the returned slices share the input bytes and are only valid until the
+   * input is reused
+   */
+  @Override
+  public List<ByteBuffer> apply(ByteBuffer in) {
+    List<ByteBuffer> frames = Lists.newArrayList();
+
+    if (pending != null) {
+      ByteBuffer frame = completePending(in);
+      if (frame == null) {
+        return frames;
+      }
+      frames.add(frame);
+    }
+
+    while (in.remaining() >= HEADER_SIZE) {
+      int length = length(in.getInt(in.position()));
+      if (in.remaining() < HEADER_SIZE + length) {
+        break;
+      }
+      in.position(in.position() + HEADER_SIZE);
+      ByteBuffer frame = in.slice();
+      frame.limit(length);
+      in.position(in.position() + length);
+      frames.add(frame);
+    }
+
+    if (in.hasRemaining()) {
+      pending = ByteBuffer.allocate(Math.max(HEADER_SIZE, in.remaining()));
+      pending.put(in);
+    }
+
+    return frames;
+  }
+
+  /**
+   * moves input into the pending frame, returning it once complete
+   */
+  private ByteBuffer completePending(ByteBuffer in) {
+    if (pending.position() < HEADER_SIZE) {
+      transfer(in, HEADER_SIZE - pending.position());
+      if (pending.position() < HEADER_SIZE) {
+        return null;
+      }
+    }
+
+    int length = length(pending.getInt(0));
+    if (pending.capacity() < HEADER_SIZE + length) {
+      ByteBuffer larger = ByteBuffer.allocate(HEADER_SIZE + length);
+      pending.flip();
+      larger.put(pending);
+      pending = larger;
+    }
+
+    transfer(in, HEADER_SIZE + length - pending.position());
+    if (pending.position() < HEADER_SIZE + length) {
+      return null;
+    }
+
+    pending.flip();
+    pending.position(HEADER_SIZE);
+    ByteBuffer frame = pending.slice();
+    pending = null;
+    return frame;
+  }
+
+  private void transfer(ByteBuffer in, int count) {
+    int n = Math.min(count, in.remaining());
+    ByteBuffer part = in.slice();
+    part.limit(n);
+    pending.put(part);
+    in.position(in.position() + n);
+  }
+
+  private int length(int length) {
+    if (length < 0 || length > maxFrameSize) {
+      throw new IllegalStateException("frame of " + length + " bytes exceeds max frame size " + maxFrameSize);
+    }
+    return length;
+  }
+}
@@ -0,0 +1,26 @@
+package network;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * writes each payload prefixed by its 4 byte big endian length
+ */
+public class LengthFieldEncoder implements Function<List<byte[]>, byte[]> {
+
+  @Override
+  public byte[] apply(List<byte[]> payloads) {
+    int size = 0;
+    for (byte[] payload : payloads) {
+      size += LengthFieldDecoder.HEADER_SIZE + payload.length;
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate(size);
+    for (byte[] payload : payloads) {
+      buffer.putInt(payload.length);
+      buffer.put(payload);
+    }
+    return buffer.array();
+  }
+}
@@ -2,23 +2,27 @@ package network;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import metrics.MetricsRegistry;
 import org.apache.log4j.Logger;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.google.common.base.Preconditions.checkArgument;
-import static com.google.common.collect.Queues.newArrayDeque;
+import static com.google.common.base.Preconditions.checkState;
 import static network.NetworkEventType.*;
 
 /**
@@ -28,36 +32,164 @@ public class Network {
   private static final Logger logger = Logger.getLogger(Network.class);
 
   private final List<NetworkListener> listeners = Lists.newCopyOnWriteArrayList();
+  private final AtomicInteger nextWorker = new AtomicInteger();
+  private final NetworkStats stats = new NetworkStats();
+  private volatile int maxBatchBuffers = 64;
+  private volatile int maxBatchBytes = 256 * 1024;
+  private volatile long flushDelayNanos;
+  private volatile long idleTimeoutNanos;
+  private volatile long lowWatermark = 2 * 1024 * 1024;
+  private volatile long highWatermark = 4 * 1024 * 1024;
+  private volatile OverflowPolicy overflow = OverflowPolicy.DISCONNECT;
 
   protected Selector selector;
   protected SelectorLoop selectorLoop;
-  protected final ExecutorService executor = Executors.newSingleThreadExecutor();
+  protected final List<SelectorLoop> workers = Lists.newCopyOnWriteArrayList();
+  protected Balancing balancing = Balancing.ROUND_ROBIN;
+  protected final ExecutorService executor = Executors.newCachedThreadPool(
+      new ThreadFactoryBuilder().setNameFormat("selector-%d").build());
   protected final SelectorHandler handler = new SelectorHandler(this);
-  protected final Map<SocketChannel, Queue<ByteBuffer>> queues = Maps.newConcurrentMap();
+  protected final Map<SocketChannel, Connection> connections = Maps.newConcurrentMap();
   protected final SelectorListener selectorListener = new SelectorListener() {
     @Override
-    public void onClosed() {
-      stopImpl();
+    public void onClosed(SelectorLoop loop) {
+      if (loop == selectorLoop) {
+        stopImpl();
+      }
+    }
+    @Override
+    public void onBeforeSelect(SelectorLoop loop) {
+      flush(loop);
     }
     @Override
-    public void onBeforeSelect() {
-      checkWrites();
+    public void onIteration(SelectorLoop loop, long nanos) {
+      stats.iteration(nanos);
     }
   };
 
   public void stop() {
-    logger.info("requesting stop...");
+    logger.info("requesting stop... " + stats);
+    workers.forEach(SelectorLoop::stop);
     selectorLoop.stop();
+    executor.shutdown();
   }
 
   protected void stopImpl() {
     try {
-      for (SocketChannel channel : queues.keySet()) {
+      for (SocketChannel channel : connections.keySet()) {
         channel.close();
       }
     } catch (Exception e) {
-      logger.error("Error closing the queues", e);
+      logger.error("Error closing the connections", e);
+    }
+  }
+
+  protected SelectorLoop newLoop(Selector selector) {
+    return new SelectorLoop(selector, selectorListener, handler);
+  }
+
+  public NetworkStats stats() {
+    return stats;
+  }
+
+  /**
+   * exports the io counters, event counts, loop iteration times and the bytes
+   * waiting in outbound queues
+   */
+  public Network metrics(MetricsRegistry registry) {
+    registry.counter("network_read_calls_total", "read calls on sockets", stats::readCalls);
+    registry.counter("network_read_bytes_total", "bytes read from sockets", stats::bytesRead);
+    registry.counter("network_write_calls_total", "write calls on sockets", stats::writeCalls);
+    registry.counter("network_write_bytes_total", "bytes written to sockets", stats::bytesWritten);
+    registry.counter("network_messages_written_total", "frames fully written", stats::messagesWritten);
+    for (NetworkEventType type : NetworkEventType.values()) {
+      registry.counter("network_events_total", "events handed to listeners", () -> stats.events(type),
+          "type", type.name());
     }
+    registry.histogram("network_loop_iteration_seconds", "busy time of selector loop iterations", stats.iterations());
+    registry.gauge("network_connections", "open connections", this::connectionCount);
+    registry.gauge("network_outbound_bytes", "bytes queued for all connections",
+        () -> connections.values().stream().mapToLong(connection -> connection.queue().bytes()).sum());
+    registry.gauge("network_outbound_bytes_max", "bytes queued for the most backed up connection",
+        () -> connections.values().stream().mapToLong(connection -> connection.queue().bytes()).max().orElse(0));
+    return this;
+  }
+
+  /**
+   * limits how many queued buffers and bytes a single gathering write takes,
+   * one buffer per write gives the old one message per write behavior
+   */
+  public Network writeBatch(int maxBuffers, int maxBytes) {
+    checkArgument(maxBuffers > 0, "maxBuffers must be positive");
+    checkArgument(maxBytes > 0, "maxBytes must be positive");
+    this.maxBatchBuffers = maxBuffers;
+    this.maxBatchBytes = maxBytes;
+    return this;
+  }
+
+  /**
+   * how long a loop may hold back a connection's output to gather more of it
+   * into the same write, zero flushes every iteration. output reaching the
+   * write batch size goes out right away. millisecond resolution, selector
+   * based networks only.
+   */
+  public Network flushDelay(long delay, TimeUnit unit) {
+    checkArgument(delay >= 0, "delay cannot be negative");
+    this.flushDelayNanos = unit.toNanos(delay);
+    return this;
+  }
+
+  /**
+   * a connection that reads nothing for half the timeout gets an IDLE event,
+   * so a listener can send something the peer has to answer, and is closed
+   * after the whole timeout. zero turns it off, applies to connections
+   * registered after it is set, selector based networks only.
+   */
+  public Network idleTimeout(long timeout, TimeUnit unit) {
+    checkArgument(timeout >= 0, "timeout cannot be negative");
+    this.idleTimeoutNanos = unit.toNanos(timeout);
+    return this;
+  }
+
+  /**
+   * runs the task on a loop thread after the delay, at the resolution of the
+   * loop's timing wheel. the task must not block.
+   */
+  public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+    SelectorLoop loop = selectorLoop;
+    checkState(loop != null, "network not started");
+    return loop.schedule(task, delay, unit);
+  }
+
+  /**
+   * bytes queued for a connection above which it stops being writable and
+   * the overflow policy applies, and below which it becomes writable again
+   */
+  public Network watermarks(long low, long high) {
+    checkArgument(low >= 0, "low cannot be negative");
+    checkArgument(high > low, "high must be greater than low");
+    this.lowWatermark = low;
+    this.highWatermark = high;
+    return this;
+  }
+
+  public Network overflow(OverflowPolicy policy) {
+    checkArgument(policy != null, "policy cannot be null");
+    this.overflow = policy;
+    return this;
+  }
+
+  int connectionCount() {
+    return connections.size();
+  }
+
+  public boolean isOpen(SocketChannel channel) {
+    return connections.containsKey(channel);
+  }
+
+  public boolean isWritable(SocketChannel channel) {
+    Connection connection = connections.get(channel);
+    return connection != null && connection.queue().isWritable();
   }
 
   public void addListener(NetworkListener lstn) {
@@ -72,35 +204,128 @@ public class Network {
 
   void notifyListeners(NetworkEvent event) {
     checkArgument(event != null, "event cannot be null");
+    stats.event(event.type());
     for (NetworkListener lstn : listeners) {
       lstn.onEvent(event);
     }
   }
 
+  void notifyWritability(SocketChannel channel, boolean writable) {
+    for (NetworkListener lstn : listeners) {
+      lstn.onWritabilityChanged(channel, writable);
+    }
+  }
+
   public void send(SocketChannel channel, byte[] data) {
-    checkArgument(channel != null, "channel cannot be null");
     checkArgument(data != null, "data cannot be null");
-    Queue<ByteBuffer> queue = queues.get(channel);
-    queue.add(ByteBuffer.wrap(data));
+    Frame frame = Frame.wrap(data);
+    try {
+      send(channel, frame);
+    } finally {
+      frame.release();
+    }
+  }
+
+  /**
+   * queues the frame on the channel, the caller keeps its own reference
+   */
+  public void send(SocketChannel channel, Frame frame) {
+    checkArgument(channel != null, "channel cannot be null");
+    checkArgument(frame != null, "frame cannot be null");
+    Connection connection = connections.get(channel);
+    if (connection == null) {
+      logger.debug("dropping data for unknown channel");
+      return;
+    }
+
+    OutboundQueue queue = connection.queue();
+    if (overflow == OverflowPolicy.BLOCK && !connection.loop().inLoop()) {
+      try {
+        queue.awaitWritable(highWatermark);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+    queue.add(frame);
+    connection.loop().markDirty(connection, queue.bytes() >= maxBatchBytes);
   }
 
   public void broadcast(byte[] data) {
     checkArgument(data != null, "data cannot be null");
     checkArgument(data.length > 0, "data cannot be empty");
-    queues.keySet().stream().forEach(channel -> send(channel, data));
+    Frame frame = Frame.wrap(data);
+    try {
+      broadcast(frame);
+    } finally {
+      frame.release();
+    }
+  }
+
+  public void broadcast(Frame frame) {
+    checkArgument(frame != null, "frame cannot be null");
+    connections.keySet().stream().forEach(channel -> send(channel, frame));
   }
 
-  void addSocket(SocketChannel channel) {
-    queues.put(channel, newArrayDeque());
+  void addSocket(SocketChannel channel, SelectorLoop loop) {
+    Connection connection = new Connection(channel, loop);
+    connections.put(channel, connection);
+    loop.attach();
+    long timeout = idleTimeoutNanos;
+    if (timeout > 0) {
+      connection.idleCheck(loop.schedule(() -> checkIdle(connection, timeout), timeout / 2, TimeUnit.NANOSECONDS));
+    }
+  }
+
+  /**
+   * one timeout per connection, rescheduled from the last read instead of on
+   * every read
+   */
+  private void checkIdle(Connection connection, long timeout) {
+    SocketChannel channel = connection.channel();
+    if (connections.get(channel) != connection) {
+      return;
+    }
+    long idle = System.nanoTime() - connection.lastRead();
+    if (idle >= timeout) {
+      logger.info("closing connection idle for " + TimeUnit.NANOSECONDS.toMillis(idle) + " ms");
+      handler.handleClose(channel);
+      return;
+    }
+    long next = timeout / 2 - idle;
+    if (next <= 0) {
+      next = timeout - idle;
+      if (connection.signalIdle()) {
+        try {
+          handler.handleIdle(channel);
+        } catch (IOException | RuntimeException e) {
+          logger.error("Error handling idle connection", e);
+        }
+      }
+    }
+    connection.idleCheck(connection.loop().schedule(() -> checkIdle(connection, timeout), next, TimeUnit.NANOSECONDS));
+  }
+
+  /**
+   * picks the loop that will own a newly accepted channel
+   */
+  SelectorLoop nextLoop() {
+    if (workers.isEmpty()) {
+      return selectorLoop;
+    }
+    if (balancing == Balancing.LEAST_LOADED) {
+      return workers.stream().min(Comparator.comparingInt(SelectorLoop::load)).get();
+    }
+    return workers.get(Math.floorMod(nextWorker.getAndIncrement(), workers.size()));
   }
 
   void handleEvent(NetworkEvent event) throws IOException {
     checkArgument(event != null, "event cannot be null");
 
     if (event.type() == ACCEPT) {
-      addSocket(event.channel());
+      // Registered by the owning loop
     } else if (event.type() == CONNECT) {
-      addSocket(event.channel());
+      // Registered by the owning loop
     } else if (event.type() == DISCONNECT) {
       disconnect(event.channel());
     } else if (event.type() == READ) {
@@ -109,74 +334,216 @@ public class Network {
       // Do nothing
     }
 
-    notifyListeners(event);
+    try {
+      notifyListeners(event);
+    } finally {
+      event.release();
+    }
+  }
+
+  /**
+   * closes the channel on its owning loop, listeners see a DISCONNECT
+   */
+  public void close(SocketChannel channel) {
+    Connection connection = connections.get(channel);
+    if (connection != null) {
+      connection.loop().execute(() -> handler.handleClose(channel));
+    }
   }
 
   public void disconnect(SocketChannel channel) throws IOException {
-    channel.keyFor(selector).cancel();
+    Connection connection = connections.remove(channel);
+    if (connection != null) {
+      SelectionKey key = connection.key();
+      if (key != null) {
+        key.cancel();
+      }
+      connection.loop().detach();
+      connection.cancelIdleCheck();
+      connection.queue().close();
+    }
     channel.close();
-    queues.remove(channel);
   }
 
+  /**
+   * writes as much of the queue as the socket takes, gathering up to the
+   * configured batch of buffers per write call
+   */
   public void sendBytes(SocketChannel channel) throws IOException {
-    Queue<ByteBuffer> queue = queues.get(channel);
-    ByteBuffer buffer = queue.peek();
-    channel.write(buffer);
-    if (buffer.hasRemaining()) {
-      buffer.compact();
-    } else {
-      queue.remove();
+    Connection connection = connections.get(channel);
+    OutboundQueue queue = connection.queue();
+    int maxBuffers = maxBatchBuffers;
+    int maxBytes = maxBatchBytes;
+    ByteBuffer[] batch = connection.loop().batch(maxBuffers);
+
+    while (true) {
+      int count = 0;
+      long bytes = 0;
+      for (OutboundQueue.Entry entry : queue) {
+        ByteBuffer buffer = entry.buffer();
+        if (count == maxBuffers || (count > 0 && bytes + buffer.remaining() > maxBytes)) {
+          break;
+        }
+        batch[count++] = buffer;
+        bytes += buffer.remaining();
+      }
+      if (count == 0) {
+        break;
+      }
+
+      long written = channel.write(batch, 0, count);
+      stats.write(written);
+      queue.written(written);
+
+      int done = 0;
+      while (done < count && !batch[done].hasRemaining()) {
+        queue.remove();
+        done++;
+      }
+      stats.written(done);
+      Arrays.fill(batch, 0, count, null);
+
+      if (written < bytes) {
+        // socket buffer is full, wait for the next OP_WRITE
+        break;
+      }
+    }
+
+    if (!queue.isWritable() && queue.bytes() <= lowWatermark) {
+      queue.setWritable(true);
+      notifyWritability(channel, true);
     }
+
+    SelectionKey key = connection.key();
     if (queue.isEmpty()) {
-      channel.keyFor(selector).interestOps(SelectionKey.OP_READ);
+      // a send racing with this is picked up again through the dirty queue
+      key.interestOps(SelectionKey.OP_READ);
+    } else {
+      // the socket is full, carry on when it drains
+      key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
     }
   }
 
-  public byte[] receiveBytes(SocketChannel channel) {
+  /**
+   * reads everything available into a buffer from the owning loop's pool,
+   * growing it up to BufferPool.MAX_SIZE, or returns null when the peer is gone
+   */
+  PooledBuffer receiveBytes(SocketChannel channel) {
     int n;
-    byte[] result = null;
+    Connection connection = connections.get(channel);
+    BufferPool pool = connection.loop().pool();
+    PooledBuffer result = pool.acquire(BufferPool.MIN_SIZE);
+    if (idleTimeoutNanos > 0) {
+      connection.read(System.nanoTime());
+    }
 
     try {
-      ByteBuffer buffer = ByteBuffer.allocate(1024);
-      ByteArrayOutputStream stream = new ByteArrayOutputStream();
-      while ((n = channel.read(buffer)) > 0) {
-        byte[] bytes = new byte[n];
-        buffer.flip();
-        buffer.get(bytes);
-        buffer.compact();
-        stream.write(bytes);
+      while ((n = channel.read(result.buffer())) > 0) {
+        stats.read(n);
+        if (!result.buffer().hasRemaining()) {
+          if (result.buffer().capacity() >= BufferPool.MAX_SIZE) {
+            // the rest is picked up on the next readable event
+            break;
+          }
+          result = pool.grow(result);
+        }
       }
-      result = stream.toByteArray();
     } catch (IOException e) {
       n = -1;
     }
 
     if (n == -1) {
-      result = null;
+      result.release();
+      return null;
     }
 
+    result.buffer().flip();
     return result;
   }
 
   public SocketChannel accept(ServerSocketChannel srvChnl) throws IOException {
     SocketChannel channel = srvChnl.accept();
-    channel.configureBlocking(false);
-    channel.register(selector, SelectionKey.OP_READ);
+    if (channel != null) {
+      channel.configureBlocking(false);
+    }
     return channel;
   }
 
-  public void connect(SocketChannel channel) throws IOException {
-    channel.finishConnect();
-    channel.keyFor(selector).interestOps(SelectionKey.OP_READ);
+  /**
+   * registers an accepted channel with the selector of the loop that will own it,
+   * must be called from that loop
+   */
+  void register(SocketChannel channel, SelectorLoop loop) throws IOException {
+    channel.register(loop.selector(), SelectionKey.OP_READ);
+    addSocket(channel, loop);
+  }
+
+  public void connect(SelectionKey key) throws IOException {
+    ((SocketChannel) key.channel()).finishConnect();
+    key.interestOps(SelectionKey.OP_READ);
   }
 
-  private void checkWrites() {
-    for (Map.Entry<SocketChannel, Queue<ByteBuffer>> entry : queues.entrySet()) {
-      Queue<ByteBuffer> queue = entry.getValue();
-      if (!queue.isEmpty()) {
-        entry.getKey().keyFor(selector).interestOps(SelectionKey.OP_WRITE);
+  /**
+   * writes out whatever the connections of the loop got since the last
+   * iteration, one gathering write per connection instead of one per send and
+   * without waiting for a select to report them writable. with a flush delay
+   * small outputs are held back until the oldest of them is that old.
+   */
+  private void flush(SelectorLoop loop) {
+    long delay = flushDelayNanos;
+    long now = delay > 0 ? System.nanoTime() : 0;
+    long deadline = 0;
+    Connection connection;
+    while ((connection = loop.pollDirty()) != null) {
+      SelectionKey key = connection.key();
+      OutboundQueue queue = connection.queue();
+      if (delay > 0 && key != null && key.isValid() && queue.bytes() < maxBatchBytes) {
+        long due = connection.deferredSince(now) + delay;
+        if (due - now > 0) {
+          loop.defer(connection);
+          deadline = deadline == 0 || due - deadline < 0 ? due : deadline;
+          continue;
+        }
+      }
+
+      connection.clearDirty();
+      if (key == null || !key.isValid() || queue.isEmpty()) {
+        continue;
+      }
+      if (queue.bytes() > highWatermark && !overflow(connection)) {
+        continue;
+      }
+      if ((key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+        continue; // waiting for the socket to drain
+      }
+      try {
+        handler.handleWrite(key);
+      } catch (IOException e) {
+        logger.debug("Error flushing connection", e);
+        handler.handleClose(connection.channel());
       }
     }
+    loop.flushBy(deadline);
   }
-}
 
+  /**
+   * applies the overflow policy, false if the connection was dropped
+   */
+  private boolean overflow(Connection connection) {
+    OutboundQueue queue = connection.queue();
+    if (queue.isWritable()) {
+      queue.setWritable(false);
+      notifyWritability(connection.channel(), false);
+    }
+
+    if (overflow == OverflowPolicy.DROP_OLDEST) {
+      int dropped = queue.dropOldest(highWatermark);
+      logger.debug("dropped " + dropped + " messages for slow consumer");
+    } else if (overflow == OverflowPolicy.DISCONNECT) {
+      logger.warn("disconnecting slow consumer with " + queue.bytes() + " bytes queued");
+      handler.handleClose(connection.channel());
+      return false;
+    }
+    return true;
+  }
+}
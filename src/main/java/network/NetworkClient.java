@@ -1,7 +1,6 @@
 package network;
 
 import org.apache.log4j.Logger;
-import sun.security.krb5.internal.NetClient;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
@@ -18,7 +17,7 @@ import static network.NetworkEventType.READ;
  * Created by Rafael on 1/24/2017.
  */
 public class NetworkClient extends Network {
-  private static final Logger logger = Logger.getLogger(NetClient.class);
+  private static final Logger logger = Logger.getLogger(NetworkClient.class);
 
   private SocketChannel channel;
   private Consumer<SocketChannel> onConnected;
@@ -41,10 +40,10 @@ public class NetworkClient extends Network {
     logger.info("connecting to server...");
 
     selector = Selector.open();
-    selectorLoop = new SelectorLoop(selector, selectorListener, handler);
+    selectorLoop = newLoop(selector);
     channel = SocketChannel.open();
     channel.configureBlocking(false);
-    channel.register(selector, SelectionKey.OP_CONNECT);
+    channel.register(selector, SelectionKey.OP_CONNECT, selectorLoop);
     channel.connect(new InetSocketAddress(host, port));
 
     logger.info("connected to " + host + ":" + port);
@@ -0,0 +1,74 @@
+package network;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * client side network multiplexing many outgoing connections over a few
+ * selector loops, listeners see a CONNECT per established connection
+ */
+public class NetworkConnector extends Network {
+  private static final Logger logger = Logger.getLogger(NetworkConnector.class);
+
+  public NetworkConnector start(int loops) throws IOException {
+    checkArgument(loops > 0, "loops must be positive");
+    checkState(selectorLoop == null, "connector already started");
+
+    for (int i = 0; i < loops; i++) {
+      SelectorLoop loop = newLoop(Selector.open());
+      workers.add(loop);
+      executor.execute(() -> loop.start());
+    }
+    selectorLoop = workers.get(0);
+    selector = selectorLoop.selector();
+
+    logger.info("started " + loops + " connector loops");
+    return this;
+  }
+
+  /**
+   * opens a connection on the next loop, it can be sent to once CONNECT is seen
+   */
+  public SocketChannel connect(String host, int port) throws IOException {
+    SocketChannel channel = SocketChannel.open();
+    connect(channel, host, port);
+    return channel;
+  }
+
+  /**
+   * connects a channel the caller opened, so it can be indexed before any
+   * event for it is fired
+   */
+  public void connect(SocketChannel channel, String host, int port) throws IOException {
+    checkArgument(channel != null, "channel cannot be null");
+    checkArgument(host != null, "host cannot be null");
+    checkArgument(port >= 0, "port cannot be negative");
+    checkState(selectorLoop != null, "connector not started");
+
+    channel.configureBlocking(false);
+    SelectorLoop loop = nextLoop();
+    loop.execute(() -> {
+      try {
+        SelectionKey key = channel.register(loop.selector(), SelectionKey.OP_CONNECT, loop);
+        if (channel.connect(new InetSocketAddress(host, port))) {
+          handler.handleConnect(key);
+        }
+      } catch (IOException e) {
+        logger.error("Error connecting to " + host + ":" + port, e);
+        try {
+          channel.close();
+        } catch (IOException ex) {
+          logger.error("Error closing channel", ex);
+        }
+      }
+    });
+  }
+}
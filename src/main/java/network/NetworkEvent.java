@@ -1,15 +1,21 @@
 package network;
 
+import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 
 /**
  * Created by Rafael on 1/15/2017.
+ *
+ * READ events carry a pooled buffer that the network releases as soon as every
+ * listener has seen the event. listeners that hold on to the payload after
+ * onEvent returns must retain() the event and release() it when done.
  */
 public class NetworkEvent {
   private Network network;
   private NetworkEventType type;
   private SocketChannel socketChannel;
   private byte[] data;
+  private PooledBuffer buffer;
 
   public Network getNetwork() {
     return network;
@@ -35,7 +41,15 @@ public class NetworkEvent {
     this.socketChannel = socketChannel;
   }
 
+  /**
+   * copy of the payload, prefer buffer() on hot paths
+   */
   public byte[] getData() {
+    if (data == null && buffer != null) {
+      ByteBuffer view = getBuffer();
+      data = new byte[view.remaining()];
+      view.get(data);
+    }
     return data;
   }
 
@@ -43,6 +57,36 @@ public class NetworkEvent {
     this.data = data;
   }
 
+  void setBuffer(PooledBuffer buffer) {
+    this.buffer = buffer;
+  }
+
+  /**
+   * read only view of the pooled payload, each call returns an independent view
+   */
+  public ByteBuffer getBuffer() {
+    if (buffer == null) {
+      return data == null ? null : ByteBuffer.wrap(data).asReadOnlyBuffer();
+    }
+    if (buffer.isReleased()) {
+      throw new IllegalStateException("event buffer already released");
+    }
+    return buffer.buffer().asReadOnlyBuffer();
+  }
+
+  public NetworkEvent retain() {
+    if (buffer != null) {
+      buffer.retain();
+    }
+    return this;
+  }
+
+  public void release() {
+    if (buffer != null) {
+      buffer.release();
+    }
+  }
+
   public Network network() {
     return getNetwork();
   }
@@ -55,6 +99,10 @@ public class NetworkEvent {
     return getData();
   }
 
+  public ByteBuffer buffer() {
+    return getBuffer();
+  }
+
   public SocketChannel channel() {
     return getSocketChannel();
   }
@@ -4,5 +4,5 @@ package network;
  * Created by Rafael on 1/15/2017.
  */
 public enum NetworkEventType {
-  DISCONNECT, READ, WRITE, ACCEPT, CONNECT;
+  DISCONNECT, READ, WRITE, ACCEPT, CONNECT, IDLE;
 }
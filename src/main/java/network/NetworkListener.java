@@ -1,8 +1,17 @@
 package network;
 
+import java.nio.channels.SocketChannel;
+
 /**
  * Created by Rafael on 1/15/2017.
  */
 public interface NetworkListener {
   void onEvent(NetworkEvent networkEvent);
+
+  /**
+   * the outbound queue of the channel went over the high watermark (false) or
+   * drained below the low watermark (true), called from the owning loop
+   */
+  default void onWritabilityChanged(SocketChannel channel, boolean writable) {
+  }
 }
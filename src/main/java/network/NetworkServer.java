@@ -21,6 +21,7 @@ public class NetworkServer extends Network {
 
   private ServerSocketChannel channel;
   private BiConsumer onRead;
+  private int workerCount;
 
   public NetworkServer() {
     addListener(evt -> {
@@ -36,7 +37,7 @@ public class NetworkServer extends Network {
     logger.info("binding to port " + port);
 
     selector = Selector.open();
-    selectorLoop = new SelectorLoop(selector, selectorListener, handler);
+    selectorLoop = newLoop(selector);
 
     channel = ServerSocketChannel.open();
     channel.configureBlocking(false);
@@ -45,9 +46,33 @@ public class NetworkServer extends Network {
 
     logger.info("socket bound to port " + port);
 
+    // workers first, nothing is accepted before every one can take a channel
+    for (int i = 0; i < workerCount; i++) {
+      SelectorLoop worker = newLoop(Selector.open());
+      workers.add(worker);
+      executor.execute(() -> worker.start());
+    }
+    logger.info("started " + workerCount + " worker loops");
+
     executor.execute(() -> selectorLoop.start());
   }
 
+  /**
+   * number of worker loops accepted channels are handed to, zero keeps every
+   * channel on the acceptor loop, must be set before bind
+   */
+  public NetworkServer workers(int count) {
+    checkArgument(count >= 0, "count cannot be negative");
+    this.workerCount = count;
+    return this;
+  }
+
+  public NetworkServer balancing(Balancing balancing) {
+    checkArgument(balancing != null, "balancing cannot be null");
+    this.balancing = balancing;
+    return this;
+  }
+
   public void onRead(BiConsumer<SocketChannel, byte[]> func) {
     this.onRead = func;
   }
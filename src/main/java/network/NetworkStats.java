@@ -0,0 +1,104 @@
+package network;
+
+import metrics.LatencyHistogram;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * io counters of a network, write calls per message shows how well the
+ * write path coalesces queued messages. also counts the events handed to
+ * listeners by type and how long selector loop iterations take.
+ */
+public class NetworkStats {
+  private final LongAdder readCalls = new LongAdder();
+  private final LongAdder bytesRead = new LongAdder();
+  private final LongAdder writeCalls = new LongAdder();
+  private final LongAdder bytesWritten = new LongAdder();
+  private final LongAdder messagesWritten = new LongAdder();
+  private final Map<NetworkEventType, LongAdder> events = new EnumMap<>(NetworkEventType.class);
+  private final LatencyHistogram iterations = new LatencyHistogram();
+
+  NetworkStats() {
+    for (NetworkEventType type : NetworkEventType.values()) {
+      events.put(type, new LongAdder());
+    }
+  }
+
+  void read(long bytes) {
+    readCalls.increment();
+    if (bytes > 0) {
+      bytesRead.add(bytes);
+    }
+  }
+
+  void write(long bytes) {
+    writeCalls.increment();
+    bytesWritten.add(bytes);
+  }
+
+  void written(int messages) {
+    messagesWritten.add(messages);
+  }
+
+  void event(NetworkEventType type) {
+    events.get(type).increment();
+  }
+
+  void iteration(long nanos) {
+    iterations.record(nanos);
+  }
+
+  public long readCalls() {
+    return readCalls.sum();
+  }
+
+  public long bytesRead() {
+    return bytesRead.sum();
+  }
+
+  public long writeCalls() {
+    return writeCalls.sum();
+  }
+
+  public long bytesWritten() {
+    return bytesWritten.sum();
+  }
+
+  public long messagesWritten() {
+    return messagesWritten.sum();
+  }
+
+  public long events(NetworkEventType type) {
+    return events.get(type).sum();
+  }
+
+  /**
+   * busy time of selector loop iterations that had work, in nanoseconds
+   */
+  public LatencyHistogram iterations() {
+    return iterations;
+  }
+
+  public double writeCallsPerMessage() {
+    long messages = messagesWritten();
+    return messages == 0 ? 0 : (double) writeCalls() / messages;
+  }
+
+  public void reset() {
+    readCalls.reset();
+    bytesRead.reset();
+    writeCalls.reset();
+    bytesWritten.reset();
+    messagesWritten.reset();
+    events.values().forEach(LongAdder::reset);
+    iterations.reset();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("reads=%d bytesRead=%d writes=%d bytesWritten=%d messages=%d writesPerMessage=%.3f",
+        readCalls(), bytesRead(), writeCalls(), bytesWritten(), messagesWritten(), writeCallsPerMessage());
+  }
+}
@@ -0,0 +1,142 @@
+package network;
+
+import com.google.common.collect.Queues;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * outbound frames of a connection, filled from any thread and drained by the
+ * owning loop, keeping count of the bytes still to be written
+ */
+class OutboundQueue implements Iterable<OutboundQueue.Entry> {
+  private final Queue<Entry> entries = Queues.newConcurrentLinkedQueue();
+  private final AtomicLong bytes = new AtomicLong();
+  private final Object lock = new Object();
+
+  private volatile boolean writable = true;
+  private volatile boolean closed;
+
+  /**
+   * queues a view of the frame, holding a reference until it is written
+   */
+  void add(Frame frame) {
+    Entry entry = new Entry(frame.retain());
+    bytes.addAndGet(entry.buffer.remaining());
+    entries.add(entry);
+    if (closed) {
+      clear();
+    }
+  }
+
+  Entry peek() {
+    return entries.peek();
+  }
+
+  /**
+   * removes the head entry and drops its frame reference
+   */
+  void remove() {
+    entries.remove().frame.release();
+  }
+
+  boolean isEmpty() {
+    return entries.isEmpty();
+  }
+
+  @Override
+  public Iterator<Entry> iterator() {
+    return entries.iterator();
+  }
+
+  /**
+   * bytes queued and not yet written
+   */
+  long bytes() {
+    return bytes.get();
+  }
+
+  void written(long count) {
+    bytes.addAndGet(-count);
+  }
+
+  /**
+   * drops entries from the head until at most target bytes are left, skipping
+   * a head entry the loop already started writing, only called from the loop
+   */
+  int dropOldest(long target) {
+    int dropped = 0;
+    Iterator<Entry> it = entries.iterator();
+    boolean head = true;
+    while (bytes.get() > target && it.hasNext()) {
+      Entry entry = it.next();
+      if (head && entry.buffer.position() > 0) {
+        head = false;
+        continue;
+      }
+      head = false;
+      it.remove();
+      bytes.addAndGet(-entry.buffer.remaining());
+      entry.frame.release();
+      dropped++;
+    }
+    return dropped;
+  }
+
+  boolean isWritable() {
+    return writable;
+  }
+
+  void setWritable(boolean writable) {
+    this.writable = writable;
+    if (writable) {
+      signal();
+    }
+  }
+
+  /**
+   * waits until the loop marks the queue writable and it is under high bytes
+   */
+  void awaitWritable(long high) throws InterruptedException {
+    synchronized (lock) {
+      while (!closed && (!writable || bytes.get() > high)) {
+        lock.wait(100L);
+      }
+    }
+  }
+
+  void close() {
+    closed = true;
+    clear();
+    signal();
+  }
+
+  private void clear() {
+    Entry entry;
+    while ((entry = entries.poll()) != null) {
+      entry.frame.release();
+    }
+  }
+
+  private void signal() {
+    synchronized (lock) {
+      lock.notifyAll();
+    }
+  }
+
+  static class Entry {
+    private final Frame frame;
+    private final ByteBuffer buffer;
+
+    Entry(Frame frame) {
+      this.frame = frame;
+      this.buffer = frame.view();
+    }
+
+    ByteBuffer buffer() {
+      return buffer;
+    }
+  }
+}
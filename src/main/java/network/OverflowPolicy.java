@@ -0,0 +1,14 @@
+package network;
+
+/**
+ * what the network does with a connection whose outbound queue went over
+ * the high watermark
+ */
+public enum OverflowPolicy {
+  /** discard the oldest messages not yet being written */
+  DROP_OLDEST,
+  /** close the slow consumer, listeners see a DISCONNECT */
+  DISCONNECT,
+  /** make senders on other threads wait until the queue drains below the low watermark */
+  BLOCK;
+}
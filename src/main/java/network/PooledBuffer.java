@@ -0,0 +1,59 @@
+package network;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * reference counted buffer borrowed from a BufferPool, returned to it when
+ * the last reference is released
+ */
+class PooledBuffer {
+  private final BufferPool pool;
+  private final ByteBuffer buffer;
+  private final int sizeClass;
+  private final AtomicInteger refCnt = new AtomicInteger(1);
+  private final Throwable allocation;
+
+  PooledBuffer(BufferPool pool, ByteBuffer buffer, int sizeClass, Throwable allocation) {
+    this.pool = pool;
+    this.buffer = buffer;
+    this.sizeClass = sizeClass;
+    this.allocation = allocation;
+  }
+
+  ByteBuffer buffer() {
+    return buffer;
+  }
+
+  int sizeClass() {
+    return sizeClass;
+  }
+
+  Throwable allocation() {
+    return allocation;
+  }
+
+  boolean isReleased() {
+    return refCnt.get() <= 0;
+  }
+
+  PooledBuffer retain() {
+    int cnt;
+    do {
+      cnt = refCnt.get();
+      if (cnt <= 0) {
+        throw new IllegalStateException("buffer already released");
+      }
+    } while (!refCnt.compareAndSet(cnt, cnt + 1));
+    return this;
+  }
+
+  void release() {
+    int cnt = refCnt.decrementAndGet();
+    if (cnt == 0) {
+      pool.recycle(this);
+    } else if (cnt < 0) {
+      throw new IllegalStateException("buffer released too many times");
+    }
+  }
+}
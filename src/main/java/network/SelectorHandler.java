@@ -19,21 +19,51 @@ class SelectorHandler {
   }
 
   public void handleAccept(SelectionKey key) throws IOException {
-    logger.info("handling accept...");
+    logger.debug("handling accept...");
     ServerSocketChannel serverSocketChannel = (ServerSocketChannel) key.channel();
     SocketChannel socketChannel = network.accept(serverSocketChannel);
-    NetworkEvent networkEvent = new NetworkEvent();
-    networkEvent.setNetwork(network);
-    networkEvent.setType(NetworkEventType.ACCEPT);
-    networkEvent.setSocketChannel(socketChannel);
-    network.handleEvent(networkEvent);
+    if (socketChannel == null) {
+      return;
+    }
+
+    // the owning loop registers the channel so all its events run on one thread
+    SelectorLoop loop = network.nextLoop();
+    loop.execute(() -> handleAccepted(socketChannel, loop));
+  }
+
+  void handleAccepted(SocketChannel socketChannel, SelectorLoop loop) {
+    try {
+      network.register(socketChannel, loop);
+
+      NetworkEvent networkEvent = new NetworkEvent();
+      networkEvent.setNetwork(network);
+      networkEvent.setType(NetworkEventType.ACCEPT);
+      networkEvent.setSocketChannel(socketChannel);
+      network.handleEvent(networkEvent);
+    } catch (IOException e) {
+      logger.error("Error registering accepted channel", e);
+      try {
+        network.disconnect(socketChannel);
+      } catch (IOException ex) {
+        logger.error("Error closing accepted channel", ex);
+      }
+    }
   }
 
   public void handleConnect(SelectionKey key) throws IOException {
-    logger.info("handling connect...");
+    logger.debug("handling connect...");
 
+    // connecting channels carry their owning loop as the key attachment
     SocketChannel socketChannel = (SocketChannel) key.channel();
-    network.connect(socketChannel);
+    SelectorLoop loop = (SelectorLoop) key.attachment();
+    try {
+      network.connect(key);
+    } catch (IOException e) {
+      logger.error("Error connecting", e);
+      handleDisconnect(socketChannel);
+      return;
+    }
+    network.addSocket(socketChannel, loop);
 
     NetworkEvent networkEvent = new NetworkEvent();
     networkEvent.setNetwork(network);
@@ -44,33 +74,27 @@ class SelectorHandler {
   }
 
   public void handleRead(SelectionKey key) throws IOException {
-    logger.info("handling read...");
+    logger.debug("handling read...");
 
     SocketChannel socketChannel = (SocketChannel) key.channel();
-    byte[] bytes = network.receiveBytes(socketChannel);
-
-    if (bytes == null) {
-      logger.info("disconnected by the client...");
-
-      NetworkEvent networkEvent = new NetworkEvent();
-      networkEvent.setNetwork(network);
-      networkEvent.setType(NetworkEventType.DISCONNECT);
-      networkEvent.setSocketChannel(socketChannel);
+    PooledBuffer buffer = network.receiveBytes(socketChannel);
 
-      network.handleEvent(networkEvent);
+    if (buffer == null) {
+      logger.debug("disconnected by the client...");
+      handleDisconnect(socketChannel);
     } else {
       NetworkEvent networkEvent = new NetworkEvent();
       networkEvent.setNetwork(network);
       networkEvent.setType(NetworkEventType.READ);
       networkEvent.setSocketChannel(socketChannel);
-      networkEvent.setData(bytes);
+      networkEvent.setBuffer(buffer);
 
       network.handleEvent(networkEvent);
     }
   }
 
   public void handleWrite(SelectionKey key) throws IOException {
-    logger.info("handling write...");
+    logger.debug("handling write...");
 
     SocketChannel socketChannel = (SocketChannel) key.channel();
     network.sendBytes(socketChannel);
@@ -80,4 +104,39 @@ class SelectorHandler {
     networkEvent.setSocketChannel(socketChannel);
     network.handleEvent(networkEvent);
   }
+
+  /**
+   * tells the listeners a connection has not read anything for a while
+   */
+  public void handleIdle(SocketChannel socketChannel) throws IOException {
+    NetworkEvent networkEvent = new NetworkEvent();
+    networkEvent.setNetwork(network);
+    networkEvent.setType(NetworkEventType.IDLE);
+    networkEvent.setSocketChannel(socketChannel);
+
+    network.handleEvent(networkEvent);
+  }
+
+  /**
+   * drops a connection the network decided to close, on the owning loop
+   */
+  public void handleClose(SocketChannel socketChannel) {
+    if (!network.isOpen(socketChannel)) {
+      return;
+    }
+    try {
+      handleDisconnect(socketChannel);
+    } catch (IOException e) {
+      logger.error("Error closing connection", e);
+    }
+  }
+
+  private void handleDisconnect(SocketChannel socketChannel) throws IOException {
+    NetworkEvent networkEvent = new NetworkEvent();
+    networkEvent.setNetwork(network);
+    networkEvent.setType(NetworkEventType.DISCONNECT);
+    networkEvent.setSocketChannel(socketChannel);
+
+    network.handleEvent(networkEvent);
+  }
 }
@@ -5,7 +5,13 @@ package network;
  */
 interface SelectorListener {
 
-  void onClosed();
+  void onClosed(SelectorLoop loop);
 
-  void onBeforeSelect();
+  void onBeforeSelect(SelectorLoop loop);
+
+  /**
+   * time the loop spent on tasks and ready keys in an iteration that had any
+   */
+  default void onIteration(SelectorLoop loop, long nanos) {
+  }
 }
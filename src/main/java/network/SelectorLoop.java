@@ -1,11 +1,19 @@
 package network;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Queues;
 import org.apache.log4j.Logger;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by Rafael on 1/16/2017.
@@ -16,8 +24,19 @@ class SelectorLoop {
   private final Selector selector;
   private final SelectorListener listener;
   private final SelectorHandler handler;
+  private final Queue<Runnable> tasks = Queues.newConcurrentLinkedQueue();
+  private final Queue<Connection> dirty = Queues.newConcurrentLinkedQueue();
+  private final AtomicBoolean wakeupPending = new AtomicBoolean();
+  private final AtomicInteger load = new AtomicInteger();
+  private final BufferPool pool = new BufferPool();
+  private final List<Connection> deferred = Lists.newArrayList();
+  private final TimingWheel wheel = new TimingWheel(10, TimeUnit.MILLISECONDS, 512);
+  private ByteBuffer[] batch = new ByteBuffer[0];
+  // nanoTime by which held back output has to be flushed, 0 when nothing is held back
+  private volatile long flushDeadline;
 
   private volatile boolean stopped;
+  private volatile Thread thread;
 
   public SelectorLoop(Selector selector, SelectorListener listener, SelectorHandler handler) {
     this.selector = selector;
@@ -25,12 +44,112 @@ class SelectorLoop {
     this.handler = handler;
   }
 
+  public Selector selector() {
+    return selector;
+  }
+
+  BufferPool pool() {
+    return pool;
+  }
+
+  /**
+   * scratch array for gathering writes, only used from the loop thread
+   */
+  ByteBuffer[] batch(int size) {
+    if (batch.length < size) {
+      batch = new ByteBuffer[size];
+    }
+    return batch;
+  }
+
   public void stop() {
     this.stopped = true;
     this.selector.wakeup();
   }
 
+  /**
+   * runs the task on the loop thread before the next select
+   */
+  public void execute(Runnable task) {
+    tasks.add(task);
+    selector.wakeup();
+  }
+
+  /**
+   * runs the task on the loop thread after the delay, at 10ms resolution
+   */
+  public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+    boolean idle = wheel.size() == 0;
+    Timeout timeout = wheel.schedule(task, delay, unit);
+    if (idle && !inLoop()) {
+      // the loop may be in a long select with no timers to wake it
+      selector.wakeup();
+    }
+    return timeout;
+  }
+
+  /**
+   * queues a connection with new output, waking the selector up if this is
+   * the first one since the loop last looked. while output is held back the
+   * loop wakes up at the flush deadline anyway, unless the connection already
+   * has a full write batch, which must not wait for it.
+   */
+  void markDirty(Connection connection, boolean full) {
+    boolean added = connection.markDirty();
+    if (added) {
+      dirty.add(connection);
+    }
+    boolean wake = flushDeadline == 0 ? added : full;
+    if (wake && !inLoop() && wakeupPending.compareAndSet(false, true)) {
+      selector.wakeup();
+    }
+  }
+
+  /**
+   * next connection with new output, or null, only used from the loop thread
+   */
+  Connection pollDirty() {
+    return dirty.poll();
+  }
+
+  /**
+   * keeps a still dirty connection for the next iteration, only used from the loop thread
+   */
+  void defer(Connection connection) {
+    deferred.add(connection);
+  }
+
+  /**
+   * requeues the deferred connections and has the next select return by the
+   * deadline, zero for none, only used from the loop thread
+   */
+  void flushBy(long deadline) {
+    dirty.addAll(deferred);
+    deferred.clear();
+    flushDeadline = deadline;
+  }
+
+  boolean inLoop() {
+    return Thread.currentThread() == thread;
+  }
+
+  /**
+   * number of channels currently owned by this loop
+   */
+  int load() {
+    return load.get();
+  }
+
+  void attach() {
+    load.incrementAndGet();
+  }
+
+  void detach() {
+    load.decrementAndGet();
+  }
+
   void start() {
+    thread = Thread.currentThread();
     while (!stopped) {
       try {
         select();
@@ -46,16 +165,23 @@ class SelectorLoop {
       logger.error("Error closing selector", e);
     }
 
-    listener.onClosed();
+    listener.onClosed(this);
+    pool.close();
   }
 
   void select() throws IOException {
-    listener.onBeforeSelect();
+    long start = System.nanoTime();
+    runTasks();
+    wheel.advance();
+    wakeupPending.set(false);
+    listener.onBeforeSelect(this);
+    long busy = System.nanoTime() - start;
 
-    int n = selector.select(100L);
+    int n = select(flushDeadline);
     if (n == 0) {
       return;
     }
+    start = System.nanoTime();
 
     Iterator<SelectionKey> it = selector.selectedKeys().iterator();
     while (it.hasNext()) {
@@ -65,13 +191,41 @@ class SelectorLoop {
         handler.handleAccept(key);
       } else if (key.isValid() && key.isConnectable()) {
         handler.handleConnect(key);
-      } else if (key.isValid() && key.isReadable()) {
-        handler.handleRead(key);
-      } else if (key.isValid() && key.isWritable()) {
-        handler.handleWrite(key);
+      } else {
+        if (key.isValid() && key.isReadable()) {
+          handler.handleRead(key);
+        }
+        if (key.isValid() && key.isWritable()) {
+          handler.handleWrite(key);
+        }
       }
 
       it.remove();
     }
+    listener.onIteration(this, busy + System.nanoTime() - start);
+  }
+
+  /**
+   * waits at most until the flush deadline, rounded up to the millisecond, or
+   * the next tick of the timing wheel while it has timeouts
+   */
+  private int select(long deadline) throws IOException {
+    long timeout = wheel.size() > 0 ? Math.max(1, TimeUnit.NANOSECONDS.toMillis(wheel.tickNanos())) : 100L;
+    if (deadline == 0) {
+      return selector.select(timeout);
+    }
+    long wait = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime() + 999_999);
+    return wait <= 0 ? selector.selectNow() : selector.select(Math.min(wait, timeout));
+  }
+
+  private void runTasks() {
+    Runnable task;
+    while ((task = tasks.poll()) != null) {
+      try {
+        task.run();
+      } catch (Exception e) {
+        logger.error("error running loop task", e);
+      }
+    }
   }
 }
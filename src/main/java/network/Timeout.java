@@ -0,0 +1,82 @@
+package network;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * a task scheduled on a TimingWheel, cancelling is a single compare and set,
+ * the wheel unlinks cancelled timeouts when it next passes their bucket
+ */
+public final class Timeout {
+  private static final int PENDING = 0;
+  private static final int CANCELLED = 1;
+  private static final int EXPIRED = 2;
+
+  final Runnable task;
+  final long deadline;
+  private final AtomicInteger state = new AtomicInteger(PENDING);
+
+  // owned by the thread driving the wheel
+  long rounds;
+  Bucket bucket;
+  Timeout prev;
+  Timeout next;
+
+  Timeout(Runnable task, long deadline) {
+    this.task = task;
+    this.deadline = deadline;
+  }
+
+  /**
+   * false if the task already ran or was cancelled before
+   */
+  public boolean cancel() {
+    return state.compareAndSet(PENDING, CANCELLED);
+  }
+
+  public boolean isCancelled() {
+    return state.get() == CANCELLED;
+  }
+
+  public boolean isExpired() {
+    return state.get() == EXPIRED;
+  }
+
+  boolean expire() {
+    return state.compareAndSet(PENDING, EXPIRED);
+  }
+
+  /**
+   * doubly linked list of the timeouts hashed to one slot of the wheel
+   */
+  static final class Bucket {
+    Timeout head;
+    Timeout tail;
+
+    void add(Timeout timeout) {
+      timeout.bucket = this;
+      if (tail == null) {
+        head = tail = timeout;
+      } else {
+        tail.next = timeout;
+        timeout.prev = tail;
+        tail = timeout;
+      }
+    }
+
+    void remove(Timeout timeout) {
+      if (timeout.prev != null) {
+        timeout.prev.next = timeout.next;
+      } else {
+        head = timeout.next;
+      }
+      if (timeout.next != null) {
+        timeout.next.prev = timeout.prev;
+      } else {
+        tail = timeout.prev;
+      }
+      timeout.prev = null;
+      timeout.next = null;
+      timeout.bucket = null;
+    }
+  }
+}
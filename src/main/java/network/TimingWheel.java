@@ -0,0 +1,123 @@
+package network;
+
+import com.google.common.collect.Queues;
+import org.apache.log4j.Logger;
+
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * hashed timing wheel, a ring of buckets each covering one tick. a timeout is
+ * hashed to the bucket of its deadline tick and carries how many more turns of
+ * the wheel it has to wait, so scheduling and cancelling are O(1) whatever the
+ * number of timeouts and advancing costs one bucket per tick.
+ *
+ * any thread can schedule and cancel, one thread drives the wheel with
+ * advance() and runs the expired tasks. timeouts fire at tick resolution, never
+ * early and at most a tick late plus however long the driver takes to advance.
+ */
+public class TimingWheel {
+  private static final Logger logger = Logger.getLogger(TimingWheel.class);
+
+  private final long tickNanos;
+  private final Timeout.Bucket[] buckets;
+  private final int mask;
+  private final long start = System.nanoTime();
+  private final Queue<Timeout> added = Queues.newConcurrentLinkedQueue();
+  private final AtomicInteger size = new AtomicInteger();
+  private long tick;
+
+  /**
+   * the bucket count is rounded up to a power of two
+   */
+  public TimingWheel(long tick, TimeUnit unit, int buckets) {
+    checkArgument(tick > 0, "tick must be positive");
+    checkArgument(buckets > 0 && buckets <= 1 << 30, "buckets out of range");
+    this.tickNanos = unit.toNanos(tick);
+    int count = Integer.highestOneBit(buckets - 1) << 1;
+    this.buckets = new Timeout.Bucket[Math.max(1, count)];
+    for (int i = 0; i < this.buckets.length; i++) {
+      this.buckets[i] = new Timeout.Bucket();
+    }
+    this.mask = this.buckets.length - 1;
+  }
+
+  public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+    checkArgument(task != null, "task cannot be null");
+    checkArgument(delay >= 0, "delay cannot be negative");
+    Timeout timeout = new Timeout(task, System.nanoTime() - start + unit.toNanos(delay));
+    size.incrementAndGet();
+    added.add(timeout);
+    return timeout;
+  }
+
+  /**
+   * timeouts scheduled and neither run nor unlinked after being cancelled yet
+   */
+  public int size() {
+    return size.get();
+  }
+
+  public long tickNanos() {
+    return tickNanos;
+  }
+
+  /**
+   * runs every timeout due by now, only called from the driving thread, returns
+   * how many ran
+   */
+  public int advance() {
+    long now = System.nanoTime() - start;
+    int expired = 0;
+    while (tick * tickNanos <= now) {
+      transferAdded();
+      expired += expire(buckets[(int) (tick & mask)]);
+      tick++;
+    }
+    return expired;
+  }
+
+  private void transferAdded() {
+    Timeout timeout;
+    while ((timeout = added.poll()) != null) {
+      if (timeout.isCancelled()) {
+        size.decrementAndGet();
+        continue;
+      }
+      // ceiling, a timeout never fires before its deadline
+      long due = Math.max(tick, (timeout.deadline + tickNanos - 1) / tickNanos);
+      timeout.rounds = (due - tick) / buckets.length;
+      buckets[(int) (due & mask)].add(timeout);
+    }
+  }
+
+  private int expire(Timeout.Bucket bucket) {
+    int expired = 0;
+    Timeout timeout = bucket.head;
+    while (timeout != null) {
+      Timeout next = timeout.next;
+      if (timeout.isCancelled()) {
+        bucket.remove(timeout);
+        size.decrementAndGet();
+      } else if (timeout.rounds <= 0) {
+        bucket.remove(timeout);
+        size.decrementAndGet();
+        if (timeout.expire()) {
+          expired++;
+          try {
+            timeout.task.run();
+          } catch (RuntimeException e) {
+            logger.error("error running timeout", e);
+          }
+        }
+      } else {
+        timeout.rounds--;
+      }
+      timeout = next;
+    }
+    return expired;
+  }
+}
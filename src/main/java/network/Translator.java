@@ -6,4 +6,12 @@ package network;
 public interface Translator<From, To> {
   To from(From from);
   From to(To to);
+
+  /**
+   * translators returning equal encodings produce the same bytes from to(),
+   * so one encoded broadcast can be shared between their connections
+   */
+  default Object encoding() {
+    return this;
+  }
 }
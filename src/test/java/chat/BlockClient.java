@@ -4,6 +4,7 @@ import chat.client.ChatClient;
 import chat.client.ChatClientImpl;
 import chat.client.ChatListener;
 import chat.server.ChatRoom;
+import chat.server.WireFormat;
 import com.google.common.collect.Maps;
 import network.NetworkEvent;
 import network.NetworkEventType;
@@ -32,6 +33,10 @@ class BlockClient implements ChatClient {
     return new BlockClient(new ChatClientImpl(host, port, translator()));
   }
 
+  public static BlockClient client(String host, int port, WireFormat format) {
+    return new BlockClient(new ChatClientImpl(host, port, format));
+  }
+
   private final ChatClient client;
   private final Map<NetworkEventType, BlockingQueue<NetworkEvent>> events = Maps.newConcurrentMap();
 
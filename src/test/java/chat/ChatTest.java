@@ -1,18 +1,36 @@
 package chat;
 
+import chat.client.ChatClientImpl;
+import chat.common.Message;
+import chat.common.MessageType;
 import chat.server.Chat;
+import chat.server.ChatCluster;
 import chat.server.ChatRoom;
 import chat.server.ChatService;
+import chat.server.ChatTranslator;
+import chat.server.NegotiatingTranslator;
+import chat.server.WireFormat;
+import network.ExecutionStage;
 import network.NetworkServer;
 import org.apache.log4j.Logger;
 import org.junit.Test;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
 
 import static com.google.common.collect.Lists.newArrayList;
+import static network.NetworkEventType.CONNECT;
+import static network.NetworkEventType.DISCONNECT;
 import static network.NetworkEventType.READ;
-import static chat.server.ChatTranslator.translator;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 // Make blocking a decorator
 // Make good separation of concerns in the server, adding layer of translator
@@ -20,6 +38,14 @@ public class ChatTest {
   private static final Logger logger = Logger.getLogger(ChatTest.class);
   private static final String HOST = "localhost";
   private static final int PORT = 9998;
+  private static final int NEGOTIATING_PORT = 9995;
+  private static final int STAGE_PORT = 9994;
+  private static final int ASYNC_PORT = 9991;
+  private static final int HEARTBEAT_PORT = 9989;
+  private static final int[] NODE_PORTS = {9988, 9987, 9986};
+  private static final int[] CLUSTER_PORTS = {9985, 9984, 9983};
+  private static final int HISTORY_PORT = 9982;
+  private static final int SHARED_ROOM_PORT = 9980;
 
   @Test
   public void functionalTest() throws Exception {
@@ -34,7 +60,7 @@ public class ChatTest {
 
     // create a chat server
     NetworkServer server = new NetworkServer();
-    server.addListener(new ChatService(server, chat, translator()));
+    server.addListener(new ChatService(server, chat, ChatTranslator::translator));
     server.bind(PORT);
 
     // create a chat client
@@ -102,5 +128,382 @@ public class ChatTest {
     logger.info("stopping server");
     server.stop();
   }
-}
 
+  @Test
+  public void mixedWireFormats() throws Exception {
+    List<String> rafaelMsgs = newArrayList();
+    List<String> joeMsgs = newArrayList();
+    List<String> annMsgs = newArrayList();
+
+    ChatRoom room = new ChatRoom("Java Programming");
+    Chat chat = new Chat().rooms(room);
+
+    // every connection picks its own format
+    NetworkServer server = new NetworkServer();
+    server.addListener(new ChatService(server, chat, NegotiatingTranslator::new));
+    server.bind(NEGOTIATING_PORT);
+
+    BlockClient rafael = BlockClient.client(HOST, NEGOTIATING_PORT, WireFormat.JSON_LINES);
+    rafael.addListener(msg -> rafaelMsgs.addAll(msg.get("message")));
+    rafael.connect();
+    rafael.join(room.name(), "Rafael");
+
+    BlockClient joe = BlockClient.client(HOST, NEGOTIATING_PORT, WireFormat.FRAMED_JSON);
+    joe.addListener(msg -> joeMsgs.addAll(msg.get("message")));
+    joe.connect();
+    joe.join(room.name(), "Joe");
+    rafael.consume(READ);
+
+    BlockClient ann = BlockClient.client(HOST, NEGOTIATING_PORT, WireFormat.FRAMED_BINARY);
+    ann.addListener(msg -> annMsgs.addAll(msg.get("message")));
+    ann.connect();
+    ann.join(room.name(), "Ann");
+    rafael.consume(READ);
+    joe.consume(READ);
+
+    joe.sendMessage(room.name(), "Joe", "Hello");
+    rafael.consume(READ);
+    ann.consume(READ);
+
+    ann.sendMessage(room.name(), "Ann", "Hi all");
+    rafael.consume(READ);
+    joe.consume(READ);
+
+    rafael.sendMessage(room.name(), "Rafael", "Hello back!");
+    joe.consume(READ);
+    ann.consume(READ);
+
+    assertEquals(
+        newArrayList(
+            "Rafael has joined the chat",
+            "Joe has joined the chat",
+            "Ann has joined the chat",
+            "Joe says: Hello",
+            "Ann says: Hi all",
+            "Rafael says: Hello back!"),
+        rafaelMsgs);
+    assertEquals(
+        newArrayList(
+            "Joe has joined the chat",
+            "Ann has joined the chat",
+            "Joe says: Hello",
+            "Ann says: Hi all",
+            "Rafael says: Hello back!"),
+        joeMsgs);
+    assertEquals(
+        newArrayList(
+            "Ann has joined the chat",
+            "Joe says: Hello",
+            "Ann says: Hi all",
+            "Rafael says: Hello back!"),
+        annMsgs);
+
+    server.stop();
+  }
+
+  @Test
+  public void commandsOnExecutionStage() throws Exception {
+    List<String> rafaelMsgs = newArrayList();
+    List<String> joeMsgs = newArrayList();
+
+    ChatRoom room = new ChatRoom("Java Programming");
+    Chat chat = new Chat().rooms(room);
+
+    // selector loops only do io, commands run on the stage lanes
+    NetworkServer server = new NetworkServer().workers(2);
+    ExecutionStage stage = new ExecutionStage(new ChatService(server, chat, NegotiatingTranslator::new), 2, 1024);
+    server.addListener(stage);
+    server.bind(STAGE_PORT);
+
+    BlockClient rafael = BlockClient.client(HOST, STAGE_PORT, WireFormat.FRAMED_BINARY);
+    rafael.addListener(msg -> rafaelMsgs.addAll(msg.get("message")));
+    rafael.connect();
+    rafael.join(room.name(), "Rafael");
+
+    BlockClient joe = BlockClient.client(HOST, STAGE_PORT, WireFormat.JSON_LINES);
+    joe.addListener(msg -> joeMsgs.addAll(msg.get("message")));
+    joe.connect();
+    joe.join(room.name(), "Joe");
+    rafael.consume(READ);
+
+    joe.sendMessage(room.name(), "Joe", "Hello");
+    rafael.consume(READ);
+
+    joe.leave(room.name());
+    rafael.consume(READ);
+
+    assertEquals(
+        newArrayList(
+            "Rafael has joined the chat",
+            "Joe has joined the chat",
+            "Joe says: Hello",
+            "Joe left the room"),
+        rafaelMsgs);
+    assertEquals(newArrayList("Joe has joined the chat", "Joe says: Hello"), joeMsgs);
+    assertEquals(0, stage.rejected());
+
+    server.stop();
+    stage.stop();
+  }
+
+  @Test
+  public void pipelinedRequests() throws Exception {
+    Chat chat = new Chat().rooms(new ChatRoom("Java Programming"), new ChatRoom("C++ Programming"));
+    NetworkServer server = new NetworkServer();
+    ChatService service = new ChatService(server, chat, NegotiatingTranslator::new);
+    server.addListener(service);
+    server.bind(ASYNC_PORT);
+
+    ChatClientImpl client = new ChatClientImpl(HOST, ASYNC_PORT, WireFormat.FRAMED_BINARY).timeout(200, TimeUnit.MILLISECONDS);
+    CountDownLatch connected = new CountDownLatch(1);
+    client.addNetworkListener(evt -> {
+      if (evt.type() == CONNECT) {
+        connected.countDown();
+      }
+    });
+    client.connect();
+    assertTrue(connected.await(5, TimeUnit.SECONDS));
+
+    // all in flight at once, each reply finds its own request
+    List<CompletableFuture<List<ChatRoom>>> replies = newArrayList();
+    for (int i = 0; i < 100; i++) {
+      replies.add(client.chatRooms());
+    }
+    for (CompletableFuture<List<ChatRoom>> reply : replies) {
+      assertEquals(2, reply.get(5, TimeUnit.SECONDS).size());
+    }
+
+    // a server that never answers
+    service.handle(MessageType.GET_ROOMS, (connection, msg) -> { });
+    try {
+      client.chatRooms().get(5, TimeUnit.SECONDS);
+      throw new AssertionError("expected the request to time out");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof TimeoutException);
+    }
+
+    client.stop();
+    server.stop();
+  }
+
+  @Test
+  public void pipelinedRequestsOfMembersOfTheSameRoom() throws Exception {
+    Chat chat = new Chat().rooms(new ChatRoom("Java Programming"));
+    NetworkServer server = new NetworkServer();
+    server.addListener(new ChatService(server, chat, NegotiatingTranslator::new));
+    server.bind(SHARED_ROOM_PORT);
+
+    List<String> rafaelMsgs = new CopyOnWriteArrayList<>();
+    List<String> joeMsgs = new CopyOnWriteArrayList<>();
+    ChatClientImpl rafael = connected(new ChatClientImpl(HOST, SHARED_ROOM_PORT, WireFormat.FRAMED_BINARY));
+    rafael.addListener(msg -> rafaelMsgs.add(msg.getFirst("message")));
+    ChatClientImpl joe = connected(new ChatClientImpl(HOST, SHARED_ROOM_PORT, WireFormat.FRAMED_BINARY));
+    joe.addListener(msg -> joeMsgs.add(msg.getFirst("message")));
+
+    String room = "Java Programming";
+    rafael.request(Message.message(MessageType.JOIN).with("room", room).with("user", "Rafael")).get(5, TimeUnit.SECONDS);
+    joe.request(Message.message(MessageType.JOIN).with("room", room).with("user", "Joe")).get(5, TimeUnit.SECONDS);
+
+    // the broadcasts of one member's requests reach the other while its own are in flight
+    List<CompletableFuture<List<ChatRoom>>> rooms = newArrayList();
+    List<CompletableFuture<Message>> says = newArrayList();
+    for (int i = 0; i < 50; i++) {
+      rooms.add(rafael.chatRooms());
+      rooms.add(joe.chatRooms());
+      says.add(rafael.request(Message.message(MessageType.MESSAGE)
+          .with("room", room).with("user", "Rafael").with("message", "r" + i)));
+      says.add(joe.request(Message.message(MessageType.MESSAGE)
+          .with("room", room).with("user", "Joe").with("message", "j" + i)));
+    }
+    for (CompletableFuture<List<ChatRoom>> reply : rooms) {
+      assertEquals(1, reply.get(5, TimeUnit.SECONDS).size());
+    }
+    for (int i = 0; i < says.size(); i++) {
+      String expected = i % 2 == 0 ? "Rafael says: r" + i / 2 : "Joe says: j" + i / 2;
+      assertEquals(expected, says.get(i).get(5, TimeUnit.SECONDS).getFirst("message"));
+    }
+
+    awaitTrue(() -> rafaelMsgs.size() >= 51 && joeMsgs.size() >= 50);
+    assertEquals("Joe has joined the chat", rafaelMsgs.get(0));
+    for (int i = 0; i < 50; i++) {
+      assertEquals("Joe says: j" + i, rafaelMsgs.get(i + 1));
+      assertEquals("Rafael says: r" + i, joeMsgs.get(i));
+    }
+
+    rafael.stop();
+    joe.stop();
+    server.stop();
+  }
+
+  @Test
+  public void heartbeatsKeepIdleClientsConnected() throws Exception {
+    Chat chat = new Chat().rooms(new ChatRoom("Java Programming"));
+    NetworkServer server = new NetworkServer();
+    server.idleTimeout(300, TimeUnit.MILLISECONDS);
+    server.addListener(new ChatService(server, chat, NegotiatingTranslator::new));
+    server.bind(HEARTBEAT_PORT);
+
+    ChatClientImpl client = new ChatClientImpl(HOST, HEARTBEAT_PORT, WireFormat.FRAMED_BINARY);
+    CountDownLatch connected = new CountDownLatch(1);
+    CountDownLatch disconnected = new CountDownLatch(1);
+    client.addNetworkListener(evt -> {
+      if (evt.type() == CONNECT) {
+        connected.countDown();
+      } else if (evt.type() == DISCONNECT) {
+        disconnected.countDown();
+      }
+    });
+    client.connect();
+    assertTrue(connected.await(5, TimeUnit.SECONDS));
+
+    // pinged a few times over, the client answers each one
+    assertFalse(disconnected.await(1, TimeUnit.SECONDS));
+    assertEquals(1, client.chatRooms().get(5, TimeUnit.SECONDS).size());
+
+    client.stop();
+    server.stop();
+  }
+
+  @Test
+  public void clusterBridgesRooms() throws Exception {
+    List<String> rafaelMsgs = newArrayList();
+    List<String> joeMsgs = newArrayList();
+    List<String> annMsgs = newArrayList();
+    // forwarded messages reach remote members exactly as local members get them
+    List<Message> changed = new CopyOnWriteArrayList<>();
+
+    // three nodes on localhost, each dialing the other two
+    List<NetworkServer> servers = newArrayList();
+    List<ChatCluster> clusters = newArrayList();
+    for (int i = 0; i < NODE_PORTS.length; i++) {
+      Chat chat = new Chat().rooms(new ChatRoom("Java Programming"), new ChatRoom("C++ Programming"));
+      NetworkServer server = new NetworkServer();
+      ChatService service = new ChatService(server, chat, NegotiatingTranslator::new);
+      server.addListener(service);
+      server.bind(NODE_PORTS[i]);
+      ChatCluster cluster = new ChatCluster(service).sweep(100, TimeUnit.MILLISECONDS);
+      for (int j = 0; j < CLUSTER_PORTS.length; j++) {
+        if (j != i) {
+          cluster.peer(HOST, CLUSTER_PORTS[j]);
+        }
+      }
+      servers.add(server);
+      clusters.add(cluster);
+    }
+    for (int i = 0; i < clusters.size(); i++) {
+      clusters.get(i).bind(CLUSTER_PORTS[i]);
+    }
+
+    BlockClient rafael = BlockClient.client(HOST, NODE_PORTS[0], WireFormat.FRAMED_BINARY);
+    rafael.addListener(msg -> rafaelMsgs.addAll(msg.get("message")));
+    rafael.addListener(msg -> {
+      if (msg.get("room") != null) {
+        changed.add(msg);
+      }
+    });
+    rafael.connect();
+    rafael.join("Java Programming", "Rafael");
+    awaitTrue(() -> clusters.get(1).interested("Java Programming") == 1);
+
+    BlockClient joe = BlockClient.client(HOST, NODE_PORTS[1], WireFormat.JSON_LINES);
+    joe.addListener(msg -> joeMsgs.addAll(msg.get("message")));
+    joe.addListener(msg -> {
+      if (msg.get("room") != null) {
+        changed.add(msg);
+      }
+    });
+    joe.connect();
+    joe.join("Java Programming", "Joe");
+    rafael.consume(READ);
+    awaitTrue(() -> clusters.get(0).interested("Java Programming") == 1);
+
+    BlockClient ann = BlockClient.client(HOST, NODE_PORTS[2], WireFormat.FRAMED_BINARY);
+    ann.addListener(msg -> annMsgs.addAll(msg.get("message")));
+    ann.connect();
+    ann.join("C++ Programming", "Ann");
+
+    rafael.sendMessage("Java Programming", "Rafael", "Hello");
+    joe.consume(READ);
+    joe.sendMessage("Java Programming", "Joe", "Hi");
+    rafael.consume(READ);
+
+    // joe's room empties, node 1 stops forwarding to node 2 after a sweep
+    joe.leave("Java Programming");
+    rafael.consume(READ);
+    awaitTrue(() -> clusters.get(0).interested("Java Programming") == 0);
+
+    assertEquals(
+        newArrayList("Rafael has joined the chat", "Joe has joined the chat", "Rafael says: Hello", "Joe says: Hi",
+            "Joe left the room"),
+        rafaelMsgs);
+    assertEquals(newArrayList("Joe has joined the chat", "Rafael says: Hello", "Joe says: Hi"), joeMsgs);
+    // nobody on node 3 is in the room, nothing was forwarded there
+    assertEquals(newArrayList("Ann has joined the chat"), annMsgs);
+    assertEquals(0, clusters.get(2).delivered());
+    assertTrue(changed.isEmpty());
+    awaitTrue(() -> clusters.get(0).interested("C++ Programming") == 1 && clusters.get(1).interested("C++ Programming") == 1);
+
+    clusters.forEach(ChatCluster::stop);
+    servers.forEach(NetworkServer::stop);
+  }
+
+  @Test
+  public void joinerReceivesEarlierMessages() throws Exception {
+    List<String> annMsgs = newArrayList();
+
+    ChatRoom room = new ChatRoom("Java Programming");
+    Chat chat = new Chat().rooms(room);
+    NetworkServer server = new NetworkServer();
+    server.addListener(new ChatService(server, chat, NegotiatingTranslator::new));
+    server.bind(HISTORY_PORT);
+
+    BlockClient rafael = BlockClient.client(HOST, HISTORY_PORT, WireFormat.FRAMED_BINARY);
+    rafael.connect();
+    rafael.join(room.name(), "Rafael");
+    rafael.sendMessage(room.name(), "Rafael", "one");
+    rafael.sendMessage(room.name(), "Rafael", "two");
+
+    // another format, the history encodes its frames for it on the join. notices
+    // are not kept, only what members said
+    BlockClient ann = BlockClient.client(HOST, HISTORY_PORT, WireFormat.JSON_LINES);
+    ann.addListener(msg -> {
+      synchronized (annMsgs) {
+        annMsgs.addAll(msg.get("message"));
+      }
+    });
+    ann.connect();
+    ann.join(room.name(), "Ann");
+    awaitTrue(() -> {
+      synchronized (annMsgs) {
+        return annMsgs.size() >= 3;
+      }
+    });
+
+    synchronized (annMsgs) {
+      assertEquals(
+          newArrayList("Rafael says: one", "Rafael says: two", "Ann has joined the chat"),
+          annMsgs);
+    }
+    server.stop();
+  }
+
+  private static ChatClientImpl connected(ChatClientImpl client) throws Exception {
+    CountDownLatch connected = new CountDownLatch(1);
+    client.addNetworkListener(evt -> {
+      if (evt.type() == CONNECT) {
+        connected.countDown();
+      }
+    });
+    client.connect();
+    assertTrue(connected.await(5, TimeUnit.SECONDS));
+    return client;
+  }
+
+  private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (!condition.getAsBoolean()) {
+      assertTrue("timed out waiting", System.nanoTime() < deadline);
+      Thread.sleep(10);
+    }
+  }
+}
@@ -0,0 +1,108 @@
+package chat.common;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static chat.common.Message.message;
+import static com.google.common.collect.Lists.newArrayList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MessageCodecTest {
+
+  @Test
+  public void roundTripsEveryType() {
+    for (MessageType type : MessageType.values()) {
+      assertSameAsJson(message(type, "corr-" + type).with("room", "Java Programming").with("user", "Rafael"));
+    }
+  }
+
+  @Test
+  public void roundTripsNullCorrelationId() {
+    Message decoded = roundTrip(message(MessageType.MESSAGE).with("message", "hi"));
+    assertNull(decoded.corrId());
+    assertEquals("hi", decoded.getFirst("message"));
+  }
+
+  @Test
+  public void roundTripsUnknownKeysAndMultipleValues() {
+    Message msg = message(MessageType.GET_ROOMS, "1");
+    msg.attrs().put("rooms", newArrayList("Java Programming", "C++ Programming", ""));
+    msg.attrs().put("not a known key", newArrayList("value"));
+    assertSameAsJson(msg);
+  }
+
+  @Test
+  public void roundTripsNonAsciiAndLongValues() {
+    StringBuilder longValue = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      longValue.append("ol\u00e1, \u4e16\u754c ");
+    }
+    assertSameAsJson(message(MessageType.MESSAGE, "c").with("message", longValue.toString()));
+  }
+
+  @Test
+  public void isSmallerThanJson() {
+    Message msg = message(MessageType.MESSAGE).with("room", "Java").with("user", "Joe").with("message", "Hello");
+    assertTrue(msg.binary().length < msg.json().getBytes().length / 2);
+  }
+
+  @Test
+  public void wrappedMessagesEncodeToTheirOwnBytes() {
+    byte[] bytes = message(MessageType.MESSAGE, "7").with("room", "Java").with("user", "Joe").binary();
+    Message wrapped = MessageCodec.wrap(ByteBuffer.wrap(bytes));
+    assertEquals(MessageType.MESSAGE, wrapped.type());
+    assertEquals("7", wrapped.corrId());
+    assertEquals(ByteBuffer.wrap(bytes), wrapped.encoded());
+    assertEquals("Joe", wrapped.getFirst("user"));
+    assertTrue(Arrays.equals(bytes, wrapped.binary()));
+
+    wrapped.with("user", "Ann");
+    assertNull(wrapped.encoded());
+    assertEquals("Ann", roundTrip(wrapped).getFirst("user"));
+  }
+
+  @Test
+  public void buildsFromValueViews() {
+    byte[] bytes = message(MessageType.MESSAGE, "7").with("room", "Java").with("user", "Joe").with("message", "hi").binary();
+    ByteBuffer[] values = MessageCodec.values(ByteBuffer.wrap(bytes), "user", "message", "missing");
+    assertEquals("Joe", MessageCodec.string(values[0]));
+    assertNull(values[2]);
+
+    byte[] built = MessageCodec.builder(MessageType.MESSAGE, "7", 1)
+        .with("message", values[0], ByteBuffer.wrap(": ".getBytes()), values[1])
+        .build();
+    assertSameAsJson(message(MessageType.MESSAGE, "7").with("message", "Joe: hi"),
+        MessageCodec.decode(ByteBuffer.wrap(built)));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void wrapChecksTheAttributes() {
+    byte[] bytes = message(MessageType.MESSAGE).with("message", "truncated").binary();
+    MessageCodec.wrap(ByteBuffer.wrap(bytes, 0, bytes.length - 1));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void rejectsUnknownType() {
+    MessageCodec.decode(ByteBuffer.wrap(new byte[]{(byte) 0x7f, 0, 0}));
+  }
+
+  private static void assertSameAsJson(Message msg) {
+    assertSameAsJson(msg, roundTrip(msg));
+  }
+
+  private static void assertSameAsJson(Message msg, Message fromBinary) {
+    Message fromJson = Message.from(msg.json());
+    assertEquals(fromJson.type(), fromBinary.type());
+    assertEquals(fromJson.corrId(), fromBinary.corrId());
+    assertEquals(fromJson.attrs(), fromBinary.attrs());
+    assertEquals(fromJson.json(), fromBinary.json());
+  }
+
+  private static Message roundTrip(Message msg) {
+    return MessageCodec.decode(ByteBuffer.wrap(MessageCodec.encode(msg)));
+  }
+}
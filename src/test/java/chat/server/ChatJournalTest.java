@@ -0,0 +1,78 @@
+package chat.server;
+
+import journal.Journal;
+import journal.JournalReader;
+import network.Frame;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static chat.common.Message.message;
+import static chat.common.MessageType.MESSAGE;
+import static com.google.common.collect.Lists.newArrayList;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class ChatJournalTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void replayRebuildsRoomsAndHistory() throws Exception {
+    Path dir = folder.getRoot().toPath();
+    try (ChatJournal journal = new ChatJournal(new Journal(dir).segmentSize(4096).open())) {
+      journal.record(ChatJournal.joined("Java", "Rafael"));
+      journal.record(ChatJournal.said("Java", "Rafael", message(MESSAGE).with("message", "Rafael says: hi")));
+      journal.record(ChatJournal.joined("Scala", "Joe"));
+      journal.record(ChatJournal.said("Java", "Rafael", message(MESSAGE).with("message", "Rafael says: bye")));
+      journal.record(ChatJournal.left("Java", "Rafael"));
+    }
+
+    Chat chat = new Chat();
+    assertEquals(5, ChatJournal.replay(chat, new JournalReader(dir), 1));
+    assertNotNull(chat.room("Scala"));
+    assertEquals(0, chat.room("Scala").history().size());
+
+    assertEquals(newArrayList("Rafael says: hi", "Rafael says: bye"), texts(chat.room("Java")));
+  }
+
+  @Test
+  public void snapshotPlusTailSkipsWhatTheSnapshotHolds() throws Exception {
+    Path dir = folder.getRoot().toPath();
+    JournalReader reader = new JournalReader(dir);
+    ChatSnapshots snapshots = new ChatSnapshots(dir);
+    try (ChatJournal journal = new ChatJournal(new Journal(dir).segmentSize(4096).open())) {
+      journal.record(ChatJournal.said("Java", "Rafael", message(MESSAGE).with("message", "one")));
+      journal.record(ChatJournal.said("Java", "Rafael", message(MESSAGE).with("message", "two")));
+
+      // the sequence was read before the second message reached the history
+      Chat live = new Chat();
+      ChatJournal.replay(live, reader, 1);
+      snapshots.write(live, 1);
+
+      journal.record(ChatJournal.said("Java", "Rafael", message(MESSAGE).with("message", "three")));
+    }
+
+    Chat chat = new Chat();
+    long snapshot = snapshots.load(chat);
+    assertEquals(1, snapshot);
+    assertEquals(3, ChatJournal.replay(chat, reader, snapshot + 1));
+    assertEquals(newArrayList("one", "two", "three"), texts(chat.room("Java")));
+  }
+
+  private static List<String> texts(ChatRoom room) {
+    List<Frame> frames = room.history().replay("text",
+        msg -> Frame.wrap(msg.getFirst("message").getBytes(US_ASCII)));
+    List<String> texts = newArrayList();
+    for (Frame frame : frames) {
+      byte[] bytes = new byte[frame.size()];
+      frame.view().get(bytes);
+      texts.add(new String(bytes, US_ASCII));
+    }
+    return texts;
+  }
+}
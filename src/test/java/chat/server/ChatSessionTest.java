@@ -0,0 +1,124 @@
+package chat.server;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ChatSessionTest {
+  private Chat chat;
+  private SocketChannel rafael;
+  private SocketChannel joe;
+
+  @Before
+  public void setUp() throws IOException {
+    chat = new Chat().rooms(new ChatRoom("Java"), new ChatRoom("Scala"));
+    rafael = SocketChannel.open();
+    joe = SocketChannel.open();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    rafael.close();
+    joe.close();
+  }
+
+  @Test
+  public void tracksJoinedRooms() {
+    chat.join(rafael, "Java", "Rafael");
+    chat.join(rafael, "Scala", "Rafa");
+    assertEquals(newArrayList("Java", "Scala"), chat.rooms(rafael));
+    assertEquals("Rafa", chat.session(rafael).get().user("Scala").name());
+  }
+
+  @Test
+  public void leavesOneRoom() {
+    chat.join(rafael, "Java", "Rafael");
+    chat.join(rafael, "Scala", "Rafael");
+    assertEquals("Rafael", chat.leave(rafael, "Java").name());
+    assertTrue(chat.getUsers("Java").isEmpty());
+    assertEquals(newArrayList("Scala"), chat.rooms(rafael));
+    assertNull(chat.leave(rafael, "Java"));
+  }
+
+  @Test
+  public void leavesEveryRoomAndDropsSession() {
+    chat.join(rafael, "Java", "Rafael");
+    chat.join(rafael, "Scala", "Rafael");
+    assertEquals(2, chat.leave(rafael).size());
+    assertTrue(chat.getUsers("Java").isEmpty());
+    assertTrue(chat.getUsers("Scala").isEmpty());
+    assertFalse(chat.session(rafael).isPresent());
+    assertTrue(chat.leave(rafael).isEmpty());
+  }
+
+  @Test
+  public void rejoinUnderAnotherNameReplacesTheOldName() {
+    chat.join(rafael, "Java", "Rafael");
+    chat.join(rafael, "Java", "Rafa");
+    assertEquals(newArrayList("Rafa"), chat.room("Java").names());
+    assertEquals("Rafa", chat.leave(rafael, "Java").name());
+    assertTrue(chat.getUsers("Java").isEmpty());
+    assertFalse(chat.session(rafael).isPresent());
+  }
+
+  @Test
+  public void nameTakenOverByAnotherConnection() {
+    chat.join(rafael, "Java", "Rafael");
+    chat.join(joe, "Java", "Rafael");
+    assertFalse(chat.session(rafael).isPresent());
+    assertTrue(chat.leave(rafael).isEmpty());
+    assertEquals(joe, chat.getUsers("Java").get(0).channel());
+  }
+
+  @Test
+  public void concurrentJoinsAndLeaves() throws Exception {
+    int threads = 4;
+    int users = 200;
+    List<SocketChannel> channels = newArrayList();
+    for (int i = 0; i < threads * users; i++) {
+      channels.add(SocketChannel.open());
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<?>> futures = newArrayList();
+      for (int t = 0; t < threads; t++) {
+        int from = t * users;
+        futures.add(executor.submit(() -> {
+          for (int i = from; i < from + users; i++) {
+            chat.join(channels.get(i), "Java", "user" + i);
+            chat.join(channels.get(i), "Scala", "user" + i);
+            if (i % 2 == 0) {
+              chat.leave(channels.get(i));
+            }
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get(10, TimeUnit.SECONDS);
+      }
+      assertEquals(threads * users / 2, chat.room("Java").users().size());
+      assertEquals(threads * users / 2, chat.room("Scala").names().size());
+      assertFalse(chat.session(channels.get(0)).isPresent());
+      assertEquals(newArrayList("Java", "Scala"), chat.rooms(channels.get(1)));
+    } finally {
+      executor.shutdown();
+      for (SocketChannel channel : channels) {
+        channel.close();
+      }
+    }
+  }
+}
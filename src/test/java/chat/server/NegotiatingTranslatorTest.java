@@ -0,0 +1,41 @@
+package chat.server;
+
+import chat.common.Message;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static chat.common.Message.message;
+import static chat.common.MessageType.MESSAGE;
+import static com.google.common.collect.Lists.newArrayList;
+import static org.junit.Assert.assertEquals;
+
+public class NegotiatingTranslatorTest {
+
+  @Test
+  public void decodesInPlaceAndKeepsBinaryMessagesPastTheReadBuffer() {
+    byte[] frames = WireFormat.FRAMED_BINARY.encode(newArrayList(
+        message(MESSAGE, "1").with("room", "Java").with("message", "first"),
+        message(MESSAGE, "2").with("room", "Java").with("message", "second")));
+    // the preamble and the first frame and a half in one read, the rest in the next
+    int split = frames.length - 5;
+    ByteBuffer first = ByteBuffer.allocate(split + 1);
+    first.put(WireFormat.FRAMED_BINARY.preamble()).put(frames, 0, split).flip();
+    ByteBuffer second = ByteBuffer.wrap(Arrays.copyOfRange(frames, split, frames.length));
+
+    NegotiatingTranslator translator = new NegotiatingTranslator();
+    List<Message> msgs = newArrayList(translator.from(first.asReadOnlyBuffer()));
+    // a pooled read buffer is reused once the event is handled
+    Arrays.fill(first.array(), (byte) 0);
+    msgs.addAll(translator.from(second.asReadOnlyBuffer()));
+    Arrays.fill(second.array(), (byte) 0);
+
+    assertEquals(WireFormat.FRAMED_BINARY, translator.format());
+    assertEquals(2, msgs.size());
+    assertEquals("first", msgs.get(0).getFirst("message"));
+    assertEquals("second", msgs.get(1).getFirst("message"));
+    assertEquals("2", msgs.get(1).corrId());
+  }
+}
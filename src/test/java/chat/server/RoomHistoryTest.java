@@ -0,0 +1,96 @@
+package chat.server;
+
+import chat.common.Message;
+import com.google.common.collect.ImmutableMap;
+import network.Frame;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static chat.common.Message.message;
+import static chat.common.MessageType.MESSAGE;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class RoomHistoryTest {
+  private static final String JSON = "json";
+  private static final String BINARY = "binary";
+
+  @Test
+  public void keepsLastMessagesInOrder() {
+    RoomHistory history = new RoomHistory(3, 1024, 0, TimeUnit.SECONDS);
+    for (int i = 0; i < 5; i++) {
+      record(history, "m" + i);
+    }
+    assertEquals(3, history.size());
+    assertEquals(Arrays.asList("m2", "m3", "m4"), texts(history.replay(JSON, this::encode)));
+  }
+
+  @Test
+  public void evictsOldestOverByteBudget() {
+    RoomHistory history = new RoomHistory(10, 6, 0, TimeUnit.SECONDS);
+    record(history, "aa");
+    record(history, "bb");
+    record(history, "cc");
+    record(history, "dd");
+    assertEquals(3, history.size());
+    assertEquals(6, history.bytes());
+    assertEquals(Arrays.asList("bb", "cc", "dd"), texts(history.replay(JSON, this::encode)));
+  }
+
+  @Test
+  public void encodesMissingFormatOnceAndKeepsIt() {
+    RoomHistory history = new RoomHistory(4, 1024, 0, TimeUnit.SECONDS);
+    record(history, "hi");
+    List<Frame> first = history.replay(BINARY, this::encode);
+    List<Frame> second = history.replay(BINARY, this::encode);
+    assertSame(first.get(0), second.get(0));
+    assertEquals(4, history.bytes());
+  }
+
+  @Test
+  public void replayInANewFormatStaysWithinByteBudget() {
+    RoomHistory history = new RoomHistory(10, 8, 0, TimeUnit.SECONDS);
+    record(history, "aa");
+    record(history, "bb");
+    record(history, "cc");
+    assertEquals(Arrays.asList("bb", "cc"), texts(history.replay(BINARY, this::encode)));
+    assertEquals(2, history.size());
+    assertEquals(8, history.bytes());
+  }
+
+  @Test
+  public void releasesFramesOnClear() {
+    RoomHistory history = new RoomHistory(4, 1024, 0, TimeUnit.SECONDS);
+    Frame frame = Frame.wrap("hi".getBytes(US_ASCII));
+    history.record(message(MESSAGE).with("message", "hi"), ImmutableMap.of(JSON, frame));
+    frame.release();
+    history.clear();
+    assertEquals(0, history.size());
+    assertEquals(0, history.bytes());
+  }
+
+  private void record(RoomHistory history, String text) {
+    Frame frame = Frame.wrap(text.getBytes(US_ASCII));
+    history.record(message(MESSAGE).with("message", text), ImmutableMap.of(JSON, frame));
+    frame.release();
+  }
+
+  private Frame encode(Message msg) {
+    return Frame.wrap(msg.getFirst("message").getBytes(US_ASCII));
+  }
+
+  private static List<String> texts(List<Frame> frames) {
+    return frames.stream().map(frame -> {
+      ByteBuffer view = frame.view();
+      byte[] bytes = new byte[view.remaining()];
+      view.get(bytes);
+      return new String(bytes, US_ASCII);
+    }).collect(toList());
+  }
+}
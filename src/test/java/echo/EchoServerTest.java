@@ -1,15 +1,32 @@
 package echo;
 
+import network.Balancing;
+import network.BlockingNetworkServer;
 import network.NetworkClient;
+import network.NetworkEvent;
+import network.NetworkEventType;
+import network.NetworkListener;
 import network.NetworkServer;
+import network.OverflowPolicy;
 import org.junit.Test;
 
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingDeque;
 
+import static com.google.common.collect.Lists.newArrayList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
+import static network.NetworkEventType.ACCEPT;
+import static network.NetworkEventType.DISCONNECT;
+import static network.NetworkEventType.IDLE;
+import static network.NetworkEventType.READ;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Created by Rafael on 1/16/2017.
@@ -34,6 +51,189 @@ public class EchoServerTest {
     server.stop();
   }
 
+  @Test
+  public void echoOverBlockingServer() throws Exception {
+    BlockingNetworkServer server = new BlockingNetworkServer();
+    server.addListener(evt -> {
+      if (evt.type() == READ) {
+        server.send(evt.channel(), evt.data());
+      }
+    });
+    server.bind(9993);
+
+    List<NetworkClient> clients = newArrayList();
+    for (int i = 0; i < 4; i++) {
+      String text = "test" + i;
+      BlockingQueue<String> queue = new LinkedBlockingDeque<>(1);
+      NetworkClient client = new NetworkClient();
+      client.onConnected(channel -> client.send(text.getBytes()));
+      client.onRead(bytes -> queue.add(new String(bytes)));
+      client.connect("localhost", 9993);
+      clients.add(client);
+
+      assertThat(queue.poll(1, SECONDS), equalTo(text));
+    }
+
+    clients.forEach(NetworkClient::stop);
+    server.stop();
+  }
+
+  @Test
+  public void echoWithWorkers() throws Exception {
+    for (Balancing balancing : Balancing.values()) {
+      NetworkServer server = new NetworkServer().workers(4).balancing(balancing);
+      server.onRead((channel, bytes) -> server.send(channel, bytes));
+      server.bind(9997);
+
+      List<NetworkClient> clients = newArrayList();
+      for (int i = 0; i < 8; i++) {
+        String text = "test" + i;
+        BlockingQueue<String> queue = new LinkedBlockingDeque<>(1);
+        NetworkClient client = new NetworkClient();
+        client.onConnected(channel -> client.send(text.getBytes()));
+        client.onRead(bytes -> queue.add(new String(bytes)));
+        client.connect("localhost", 9997);
+        clients.add(client);
+
+        assertThat(queue.poll(1, SECONDS), equalTo(text));
+      }
+
+      clients.forEach(NetworkClient::stop);
+      server.stop();
+      Thread.sleep(200);
+    }
+  }
+
+  @Test
+  public void flushDelayGathersSends() throws Exception {
+    BlockingQueue<SocketChannel> accepted = new LinkedBlockingDeque<>();
+    NetworkServer server = new NetworkServer();
+    server.flushDelay(50, MILLISECONDS);
+    server.addListener(evt -> {
+      if (evt.type() == ACCEPT) {
+        accepted.add(evt.channel());
+      }
+    });
+    server.bind(9992);
+
+    SocketChannel peer = SocketChannel.open(new InetSocketAddress("localhost", 9992));
+    SocketChannel channel = accepted.poll(1, SECONDS);
+    for (String text : newArrayList("one", "two", "three")) {
+      server.send(channel, text.getBytes());
+    }
+
+    ByteBuffer received = ByteBuffer.allocate(64);
+    while (received.position() < 11) {
+      peer.read(received);
+    }
+    assertThat(new String(received.array(), 0, received.position()), equalTo("onetwothree"));
+    // the loop counts the write after the peer may already have read it
+    for (int i = 0; i < 100 && server.stats().writeCalls() == 0; i++) {
+      Thread.sleep(10);
+    }
+    assertThat(server.stats().writeCalls(), equalTo(1L));
+
+    peer.close();
+    server.stop();
+  }
+
+  @Test
+  public void fullWriteBatchIsNotHeldBackByAnotherConnectionsDelay() throws Exception {
+    BlockingQueue<SocketChannel> accepted = new LinkedBlockingDeque<>();
+    NetworkServer server = new NetworkServer();
+    server.flushDelay(2, SECONDS).writeBatch(16, 8);
+    server.addListener(evt -> {
+      if (evt.type() == ACCEPT) {
+        accepted.add(evt.channel());
+      }
+    });
+    server.bind(9981);
+
+    SocketChannel slowPeer = SocketChannel.open(new InetSocketAddress("localhost", 9981));
+    SocketChannel slow = accepted.poll(1, SECONDS);
+    SocketChannel fullPeer = SocketChannel.open(new InetSocketAddress("localhost", 9981));
+    SocketChannel full = accepted.poll(1, SECONDS);
+
+    // held back, the loop now only wakes up for its deadline or a select timeout
+    server.send(slow, "hi".getBytes());
+    Thread.sleep(100);
+    long start = System.nanoTime();
+    for (int i = 0; i < 5; i++) {
+      server.send(full, "a full batch".getBytes());
+      ByteBuffer received = ByteBuffer.allocate(64);
+      while (received.position() < 12) {
+        fullPeer.read(received);
+      }
+      assertThat(new String(received.array(), 0, received.position()), equalTo("a full batch"));
+    }
+    // each round would wait out most of a select timeout without a wakeup
+    assertTrue(System.nanoTime() - start < MILLISECONDS.toNanos(150));
+
+    slowPeer.close();
+    fullPeer.close();
+    server.stop();
+  }
+
+  @Test
+  public void idleConnectionIsSignalledThenClosed() throws Exception {
+    BlockingQueue<NetworkEventType> events = new LinkedBlockingDeque<>();
+    NetworkServer server = new NetworkServer();
+    server.idleTimeout(200, MILLISECONDS);
+    server.addListener(evt -> events.add(evt.type()));
+    server.bind(9990);
+
+    // a peer that never sends anything
+    SocketChannel peer = SocketChannel.open(new InetSocketAddress("localhost", 9990));
+    assertThat(events.poll(1, SECONDS), equalTo(ACCEPT));
+    assertThat(events.poll(1, SECONDS), equalTo(IDLE));
+    assertThat(events.poll(1, SECONDS), equalTo(DISCONNECT));
+
+    peer.close();
+    server.stop();
+  }
+
+  @Test
+  public void slowConsumerIsDisconnected() throws Exception {
+    BlockingQueue<SocketChannel> accepted = new LinkedBlockingDeque<>();
+    BlockingQueue<Boolean> writability = new LinkedBlockingDeque<>();
+    BlockingQueue<SocketChannel> disconnected = new LinkedBlockingDeque<>();
+
+    NetworkServer server = new NetworkServer();
+    server.watermarks(16 * 1024, 64 * 1024).overflow(OverflowPolicy.DISCONNECT);
+    server.addListener(new NetworkListener() {
+      @Override
+      public void onEvent(NetworkEvent evt) {
+        if (evt.type() == ACCEPT) {
+          accepted.add(evt.channel());
+        } else if (evt.type() == DISCONNECT) {
+          disconnected.add(evt.channel());
+        }
+      }
+
+      @Override
+      public void onWritabilityChanged(SocketChannel channel, boolean writable) {
+        writability.add(writable);
+      }
+    });
+    server.bind(9996);
+
+    // a peer that never reads
+    SocketChannel peer = SocketChannel.open(new InetSocketAddress("localhost", 9996));
+    SocketChannel channel = accepted.poll(1, SECONDS);
+
+    byte[] chunk = new byte[32 * 1024];
+    for (int i = 0; i < 2048 && disconnected.isEmpty(); i++) {
+      server.send(channel, chunk);
+      Thread.sleep(1);
+    }
+
+    assertThat(disconnected.poll(1, SECONDS), equalTo(channel));
+    assertThat(writability.poll(1, SECONDS), equalTo(false));
+
+    peer.close();
+    server.stop();
+  }
+
   @Test
   public void chat() throws Exception {
 
@@ -0,0 +1,127 @@
+package journal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JournalTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void readsBackWhatWasAppended() throws IOException {
+    Path dir = folder.getRoot().toPath();
+    try (Journal journal = new Journal(dir).fsync(FsyncPolicy.EVERY_WRITE, 1, TimeUnit.SECONDS).open()) {
+      assertEquals(1, journal.append(bytes("one")));
+      assertEquals(2, journal.append(bytes("two")));
+      assertEquals(3, journal.append(bytes("three")));
+    }
+    assertEquals(newArrayList("one", "two", "three"), read(dir, 1));
+    assertEquals(newArrayList("two", "three"), read(dir, 2));
+  }
+
+  @Test
+  public void rollsSegmentsAndKeepsRetained() throws IOException {
+    Path dir = folder.getRoot().toPath();
+    try (Journal journal = new Journal(dir).segmentSize(64).retain(2).fsync(FsyncPolicy.NONE, 1, TimeUnit.SECONDS).open()) {
+      for (int i = 0; i < 10; i++) {
+        journal.append(bytes("record" + i));
+      }
+    }
+    // 16 byte header plus 7 byte payload, two records per segment
+    assertEquals(2, JournalReader.segments(dir).size());
+    assertEquals(newArrayList("record6", "record7", "record8", "record9"), read(dir, 1));
+  }
+
+  @Test
+  public void reopenContinuesSequence() throws IOException {
+    Path dir = folder.getRoot().toPath();
+    try (Journal journal = new Journal(dir).segmentSize(1024).open()) {
+      journal.append(bytes("before"));
+    }
+    try (Journal journal = new Journal(dir).segmentSize(1024).open()) {
+      assertEquals(2, journal.nextSequence());
+      journal.append(bytes("after"));
+    }
+    assertEquals(newArrayList("before", "after"), read(dir, 1));
+  }
+
+  @Test
+  public void tornRecordIsDroppedAndOverwritten() throws IOException {
+    Path dir = folder.getRoot().toPath();
+    try (Journal journal = new Journal(dir).segmentSize(1024).open()) {
+      journal.append(bytes("intact"));
+      journal.append(bytes("torn"));
+    }
+    // corrupt the payload of the second record
+    try (RandomAccessFile file = new RandomAccessFile(JournalReader.segments(dir).get(0).toFile(), "rw")) {
+      file.seek(Journal.HEADER_SIZE + 6 + Journal.HEADER_SIZE);
+      file.write('x');
+    }
+    assertEquals(newArrayList("intact"), read(dir, 1));
+
+    try (Journal journal = new Journal(dir).segmentSize(1024).open()) {
+      assertEquals(2, journal.append(bytes("ok")));
+    }
+    assertEquals(newArrayList("intact", "ok"), read(dir, 1));
+  }
+
+  @Test
+  public void appendsWhileFlushesRollAndClose() throws Exception {
+    Path dir = folder.getRoot().toPath();
+    Journal journal = new Journal(dir).segmentSize(256).fsync(FsyncPolicy.BATCHED, 1, TimeUnit.MILLISECONDS).open();
+    ExecutorService flushers = Executors.newFixedThreadPool(2);
+    List<Future<?>> done = newArrayList();
+    for (int i = 0; i < 2; i++) {
+      done.add(flushers.submit(() -> {
+        while (!Thread.currentThread().isInterrupted()) {
+          journal.flush();
+        }
+      }));
+    }
+
+    List<String> expected = newArrayList();
+    for (int i = 0; i < 500; i++) {
+      journal.append(bytes("record" + i));
+      expected.add("record" + i);
+    }
+    journal.close();
+    flushers.shutdownNow();
+    assertTrue(flushers.awaitTermination(5, TimeUnit.SECONDS));
+    for (Future<?> flusher : done) {
+      assertTrue(flusher.isDone());
+    }
+    assertEquals(expected, read(dir, 1));
+  }
+
+  private static List<String> read(Path dir, long from) throws IOException {
+    List<String> records = newArrayList();
+    new JournalReader(dir).read(from, (sequence, payload) -> records.add(string(payload)));
+    return records;
+  }
+
+  private static byte[] bytes(String text) {
+    return text.getBytes(US_ASCII);
+  }
+
+  private static String string(ByteBuffer payload) {
+    byte[] bytes = new byte[payload.remaining()];
+    payload.get(bytes);
+    return new String(bytes, US_ASCII);
+  }
+}
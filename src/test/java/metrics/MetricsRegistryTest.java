@@ -0,0 +1,47 @@
+package metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsRegistryTest {
+
+  @Test
+  public void bucketsAreWithinASixteenth() {
+    for (long value = 0; value < 1_000_000; value += 7) {
+      long upper = LatencyHistogram.upperBound(LatencyHistogram.index(value));
+      assertTrue(value + " in bucket up to " + upper, upper >= value && upper - value <= value / 16);
+    }
+  }
+
+  @Test
+  public void percentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i * 1000L);
+    }
+    assertEquals(1000, histogram.count());
+    assertEquals(1_000_000, histogram.max());
+    assertEquals(500_000, histogram.percentile(50), 500_000 / 16);
+    assertEquals(990_000, histogram.percentile(99), 990_000 / 16);
+    assertEquals(1_000_000, histogram.percentile(100));
+  }
+
+  @Test
+  public void scrapesPrometheusText() {
+    MetricsRegistry registry = new MetricsRegistry();
+    registry.counter("requests_total", "requests", "type", "GET").add(3);
+    registry.gauge("queued", "queued bytes", () -> 42);
+    registry.histogram("latency_seconds", "latency").record(2_000_000);
+
+    String text = registry.scrape();
+    assertTrue(text, text.contains("# TYPE requests_total counter\nrequests_total{type=\"GET\"} 3\n"));
+    assertTrue(text, text.contains("queued 42\n"));
+    assertTrue(text, text.contains("latency_seconds{quantile=\"0.5\"} 0.002\n"));
+    assertTrue(text, text.contains("latency_seconds_count 1\n"));
+
+    assertEquals(3L, registry.values().get("requests_total_GET"));
+    assertEquals(1L, registry.values().get("latency_seconds_count"));
+  }
+}
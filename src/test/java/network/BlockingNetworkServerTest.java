@@ -0,0 +1,42 @@
+package network;
+
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+import static network.NetworkEventType.ACCEPT;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+public class BlockingNetworkServerTest {
+
+  @Test
+  public void sendToAPeerNotReadingGivesUpAfterTheWriteTimeout() throws Exception {
+    BlockingQueue<SocketChannel> accepted = new LinkedBlockingDeque<>();
+    BlockingNetworkServer server = new BlockingNetworkServer().writeTimeout(200, TimeUnit.MILLISECONDS);
+    server.addListener(evt -> {
+      if (evt.type() == ACCEPT) {
+        accepted.add(evt.channel());
+      }
+    });
+    server.bind(9978);
+
+    try (SocketChannel peer = SocketChannel.open(new InetSocketAddress("localhost", 9978))) {
+      SocketChannel channel = accepted.poll(5, TimeUnit.SECONDS);
+      assertNotNull(channel);
+
+      // far more than the socket buffers hold, the peer never reads any of it
+      Frame frame = Frame.wrap(new byte[64 * 1024 * 1024]);
+      CompletableFuture<Void> sent = CompletableFuture.runAsync(() -> server.send(channel, frame));
+      sent.get(5, TimeUnit.SECONDS);
+      assertFalse(channel.isOpen());
+    } finally {
+      server.stop();
+    }
+  }
+}
@@ -0,0 +1,111 @@
+package network;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BufferPoolTest {
+
+  @Test
+  public void acquiresTheSmallestSizeClassThatFits() {
+    BufferPool pool = new BufferPool(4, false);
+    assertEquals(1024, pool.acquire(1).buffer().capacity());
+    assertEquals(1024, pool.acquire(1024).buffer().capacity());
+    assertEquals(4096, pool.acquire(1025).buffer().capacity());
+    assertEquals(16 * 1024, pool.acquire(5000).buffer().capacity());
+    assertEquals(64 * 1024, pool.acquire(64 * 1024).buffer().capacity());
+    // larger requests are capped at the largest class
+    assertEquals(64 * 1024, pool.acquire(1 << 20).buffer().capacity());
+  }
+
+  @Test
+  public void releasedBuffersAreReusedClearedWithinTheirSizeClass() {
+    BufferPool pool = new BufferPool(4, false);
+    PooledBuffer small = pool.acquire(100);
+    PooledBuffer large = pool.acquire(10000);
+    ByteBuffer smallBytes = small.buffer();
+    ByteBuffer largeBytes = large.buffer();
+    smallBytes.put((byte) 1);
+    small.release();
+    large.release();
+
+    assertSame(largeBytes, pool.acquire(10000).buffer());
+    PooledBuffer again = pool.acquire(100);
+    assertSame(smallBytes, again.buffer());
+    assertEquals(0, again.buffer().position());
+    assertEquals(again.buffer().capacity(), again.buffer().limit());
+    // the class is empty again
+    assertNotSame(smallBytes, pool.acquire(100).buffer());
+  }
+
+  @Test
+  public void poolsAtMostMaxPooledBuffersPerClass() {
+    BufferPool pool = new BufferPool(1, false);
+    PooledBuffer first = pool.acquire(100);
+    PooledBuffer second = pool.acquire(100);
+    first.release();
+    second.release();
+
+    assertSame(first.buffer(), pool.acquire(100).buffer());
+    ByteBuffer fresh = pool.acquire(100).buffer();
+    assertNotSame(first.buffer(), fresh);
+    assertNotSame(second.buffer(), fresh);
+  }
+
+  @Test
+  public void returnsToThePoolWhenTheLastReferenceIsReleased() {
+    BufferPool pool = new BufferPool(4, false);
+    PooledBuffer buffer = pool.acquire(100).retain();
+    buffer.release();
+    assertFalse(buffer.isReleased());
+    assertNotSame(buffer.buffer(), pool.acquire(100).buffer());
+
+    buffer.release();
+    assertTrue(buffer.isReleased());
+    assertSame(buffer.buffer(), pool.acquire(100).buffer());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void releasingTooManyTimesFails() {
+    PooledBuffer buffer = new BufferPool(4, false).acquire(100);
+    buffer.release();
+    buffer.release();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void retainingAReleasedBufferFails() {
+    PooledBuffer buffer = new BufferPool(4, false).acquire(100);
+    buffer.release();
+    buffer.retain();
+  }
+
+  @Test
+  public void debugModeTracksBuffersNeverReleased() {
+    BufferPool pool = new BufferPool(4, true);
+    PooledBuffer kept = pool.acquire(100);
+    PooledBuffer released = pool.acquire(100).retain();
+    released.release();
+    assertNotNull(kept.allocation());
+    assertEquals(2, pool.leaks());
+
+    released.release();
+    assertEquals(1, pool.leaks());
+    pool.close();
+    assertEquals(0, pool.leaks());
+  }
+
+  @Test
+  public void tracksNothingOutsideDebugMode() {
+    BufferPool pool = new BufferPool(4, false);
+    PooledBuffer kept = pool.acquire(100);
+    assertEquals(0, pool.leaks());
+    assertEquals(null, kept.allocation());
+  }
+}
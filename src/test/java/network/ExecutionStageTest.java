@@ -0,0 +1,80 @@
+package network;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static network.NetworkEventType.ACCEPT;
+import static network.NetworkEventType.DISCONNECT;
+import static network.NetworkEventType.WRITE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ExecutionStageTest {
+
+  @Test
+  public void fullLaneNeverBlocksTheCallerOnLifecycleEvents() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch proceed = new CountDownLatch(1);
+    List<NetworkEventType> handled = new CopyOnWriteArrayList<>();
+    ExecutionStage stage = new ExecutionStage(evt -> {
+      started.countDown();
+      try {
+        proceed.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      handled.add(evt.type());
+    }, 1, 1).writeEvents(true);
+
+    stage.onEvent(event(ACCEPT));
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+
+    // the lane is busy, one WRITE fills it and the next one is dropped
+    stage.onEvent(event(WRITE));
+    stage.onEvent(event(WRITE));
+    stage.onWritabilityChanged(null, true);
+    // queued past the bound instead of waiting for room
+    stage.onEvent(event(DISCONNECT));
+    assertEquals(2, stage.rejected());
+
+    proceed.countDown();
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (stage.completed() < 3 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(3, stage.completed());
+    assertEquals(Arrays.asList(ACCEPT, WRITE, DISCONNECT), handled);
+    stage.stop();
+  }
+
+  @Test
+  public void writeEventsAreSkippedUnlessAskedFor() throws Exception {
+    List<NetworkEventType> handled = new CopyOnWriteArrayList<>();
+    ExecutionStage stage = new ExecutionStage(evt -> handled.add(evt.type()), 1, 1);
+
+    for (int i = 0; i < 10; i++) {
+      stage.onEvent(event(WRITE));
+    }
+    stage.onEvent(event(DISCONNECT));
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (stage.completed() < 1 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(1, stage.submitted());
+    assertEquals(0, stage.rejected());
+    assertEquals(Arrays.asList(DISCONNECT), handled);
+    stage.stop();
+  }
+
+  private static NetworkEvent event(NetworkEventType type) {
+    NetworkEvent event = new NetworkEvent();
+    event.setType(type);
+    event.setSocketChannel(null);
+    return event;
+  }
+}
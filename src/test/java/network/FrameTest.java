@@ -0,0 +1,99 @@
+package network;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class FrameTest {
+  private static final byte[] DATA = "hello, members".getBytes(UTF_8);
+
+  @Test
+  public void fannedOutFrameIsRecycledOnceAfterTheLastWrite() {
+    AtomicInteger recycled = new AtomicInteger();
+    Frame frame = new Frame(ByteBuffer.wrap(DATA), recycled::incrementAndGet);
+    List<OutboundQueue> members = newArrayList();
+    for (int i = 0; i < 5; i++) {
+      OutboundQueue queue = new OutboundQueue();
+      queue.add(frame);
+      members.add(queue);
+    }
+    // the sender's own reference, dropped once the frame is queued everywhere
+    frame.release();
+
+    for (int i = 0; i < members.size(); i++) {
+      assertEquals(0, recycled.get());
+      OutboundQueue queue = members.get(i);
+      assertArrayEquals(DATA, write(queue));
+      assertEquals(0, queue.bytes());
+    }
+    assertEquals(1, recycled.get());
+  }
+
+  @Test
+  public void closingAQueueReleasesItsReference() {
+    AtomicInteger recycled = new AtomicInteger();
+    Frame frame = new Frame(ByteBuffer.wrap(DATA), recycled::incrementAndGet);
+    OutboundQueue written = new OutboundQueue();
+    OutboundQueue closed = new OutboundQueue();
+    written.add(frame);
+    closed.add(frame);
+    frame.release();
+
+    closed.close();
+    assertEquals(0, recycled.get());
+    write(written);
+    assertEquals(1, recycled.get());
+  }
+
+  @Test
+  public void viewsKeepTheirOwnPosition() {
+    Frame frame = Frame.wrap(DATA);
+    ByteBuffer first = frame.view();
+    ByteBuffer second = frame.view();
+
+    first.get(new byte[5]);
+    assertEquals(5, first.position());
+    assertEquals(0, second.position());
+    assertEquals(DATA.length, second.remaining());
+    assertEquals(DATA.length, frame.size());
+
+    byte[] rest = new byte[second.remaining()];
+    second.get(rest);
+    assertArrayEquals(DATA, rest);
+    assertEquals(5, first.position());
+    assertEquals(0, frame.view().position());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void releasedFrameHasNoViews() {
+    Frame frame = Frame.wrap(DATA);
+    frame.release();
+    frame.view();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void releasingTooManyTimesFails() {
+    Frame frame = Frame.wrap(DATA);
+    frame.release();
+    frame.release();
+  }
+
+  /**
+   * drains the head entry the way the loop does after a complete write
+   */
+  private static byte[] write(OutboundQueue queue) {
+    ByteBuffer buffer = queue.peek().buffer();
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    queue.written(bytes.length);
+    queue.remove();
+    return bytes;
+  }
+}
@@ -0,0 +1,67 @@
+package network;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LengthFieldDecoderTest {
+
+  @Test
+  public void decodesSeveralFramesFromOneRead() {
+    byte[] bytes = new LengthFieldEncoder().apply(newArrayList(bytes("one"), bytes("two"), bytes("")));
+    List<ByteBuffer> frames = new LengthFieldDecoder(1024).apply(ByteBuffer.wrap(bytes));
+    assertEquals(newArrayList("one", "two", ""), strings(frames));
+  }
+
+  @Test
+  public void decodesFramesSplitAcrossReads() {
+    byte[] bytes = new LengthFieldEncoder().apply(newArrayList(bytes("hello"), bytes("world!")));
+    LengthFieldDecoder decoder = new LengthFieldDecoder(1024);
+
+    // feed one byte at a time, crossing every header and payload boundary
+    List<String> decoded = newArrayList();
+    for (byte b : bytes) {
+      decoded.addAll(strings(decoder.apply(ByteBuffer.wrap(new byte[]{b}))));
+    }
+    assertEquals(newArrayList("hello", "world!"), decoded);
+  }
+
+  @Test
+  public void keepsTrailingPartialFrame() {
+    byte[] bytes = new LengthFieldEncoder().apply(newArrayList(bytes("first"), bytes("second")));
+    LengthFieldDecoder decoder = new LengthFieldDecoder(1024);
+
+    int split = bytes.length - 3;
+    List<ByteBuffer> head = decoder.apply(ByteBuffer.wrap(bytes, 0, split));
+    assertEquals(newArrayList("first"), strings(head));
+
+    List<ByteBuffer> tail = decoder.apply(ByteBuffer.wrap(bytes, split, 3));
+    assertEquals(newArrayList("second"), strings(tail));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void rejectsFramesOverTheMaxSize() {
+    byte[] bytes = new LengthFieldEncoder().apply(newArrayList(new byte[65]));
+    new LengthFieldDecoder(64).apply(ByteBuffer.wrap(bytes));
+  }
+
+  @Test
+  public void returnsNothingUntilHeaderIsComplete() {
+    assertTrue(new LengthFieldDecoder(64).apply(ByteBuffer.wrap(new byte[]{0, 0})).isEmpty());
+  }
+
+  private static byte[] bytes(String str) {
+    return str.getBytes(UTF_8);
+  }
+
+  private static List<String> strings(List<ByteBuffer> frames) {
+    return frames.stream().map(frame -> UTF_8.decode(frame).toString()).collect(toList());
+  }
+}
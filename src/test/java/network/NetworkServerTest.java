@@ -0,0 +1,41 @@
+package network;
+
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NetworkServerTest {
+
+  @Test
+  public void acceptedChannelsGoToWorkersOnly() throws Exception {
+    NetworkServer server = new NetworkServer().workers(2);
+    server.bind(9979);
+
+    List<SocketChannel> peers = newArrayList();
+    for (int i = 0; i < 20; i++) {
+      peers.add(SocketChannel.open(new InetSocketAddress("localhost", 9979)));
+    }
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (workerLoad(server) < peers.size()) {
+      assertTrue("timed out waiting", System.nanoTime() < deadline);
+      Thread.sleep(10);
+    }
+    assertEquals(0, server.selectorLoop.load());
+
+    for (SocketChannel peer : peers) {
+      peer.close();
+    }
+    server.stop();
+  }
+
+  private static int workerLoad(NetworkServer server) {
+    return server.workers.stream().mapToInt(SelectorLoop::load).sum();
+  }
+}
@@ -0,0 +1,57 @@
+package network;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TimingWheelTest {
+
+  @Test
+  public void runsTimeoutsInDeadlineOrderAndNeverEarly() throws Exception {
+    // a small wheel so some timeouts take several turns
+    TimingWheel wheel = new TimingWheel(1, TimeUnit.MILLISECONDS, 4);
+    List<Integer> ran = newArrayList();
+    long start = System.nanoTime();
+    long[] ranAfter = new long[3];
+    for (int delay : new int[]{30, 2, 11}) {
+      wheel.schedule(() -> {
+        ran.add(delay);
+        ranAfter[Math.min(2, delay / 10)] = System.nanoTime() - start;
+      }, delay, TimeUnit.MILLISECONDS);
+    }
+    assertEquals(3, wheel.size());
+
+    while (wheel.size() > 0) {
+      wheel.advance();
+      Thread.sleep(1);
+    }
+    assertEquals(newArrayList(2, 11, 30), ran);
+    assertTrue(ranAfter[0] >= TimeUnit.MILLISECONDS.toNanos(2));
+    assertTrue(ranAfter[1] >= TimeUnit.MILLISECONDS.toNanos(11));
+    assertTrue(ranAfter[2] >= TimeUnit.MILLISECONDS.toNanos(30));
+  }
+
+  @Test
+  public void cancelledTimeoutsDoNotRun() throws Exception {
+    TimingWheel wheel = new TimingWheel(1, TimeUnit.MILLISECONDS, 8);
+    List<String> ran = newArrayList();
+    Timeout cancelled = wheel.schedule(() -> ran.add("cancelled"), 100, TimeUnit.MILLISECONDS);
+    Timeout kept = wheel.schedule(() -> ran.add("kept"), 100, TimeUnit.MILLISECONDS);
+    wheel.advance();
+    assertTrue(cancelled.cancel());
+    assertFalse(cancelled.cancel());
+
+    Thread.sleep(150);
+    wheel.advance();
+    assertEquals(newArrayList("kept"), ran);
+    assertTrue(kept.isExpired());
+    assertFalse(kept.cancel());
+    assertEquals(0, wheel.size());
+  }
+}